@@ -0,0 +1,92 @@
+package server;
+
+import model.GPSPoint;
+import model.Match;
+import model.Player;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jol.info.GraphLayout;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Heap footprint of the registry of live matches kept by the {@link MatchListener}, holding the
+ * decoded {@link Match} objects or their {@link LiveMatch} records, and cost of building a record.
+ * <p>
+ * The footprints are measured with JOL on the whole object graph of the registry, so the ids of
+ * the matches are counted as well, and printed at the end of each trial.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MatchFootprintBenchmark {
+    @Param({"1000", "10000"})
+    public int matches;
+
+    private Map<String, Match> decoded;
+    private Map<String, LiveMatch> records;
+    private Match match;
+
+    @Setup
+    public void setUp() {
+        decoded = new HashMap<>();
+        records = new HashMap<>();
+        for (int i = 0; i < matches; ++i) {
+            Match m = match("match" + i, 100000 + 4 * i, i % 4 + 1);
+            decoded.put(m.getMatchID(), m);
+            records.put(m.getMatchID(), LiveMatch.of(m.getMatchID(), m));
+        }
+        match = decoded.get("match3");
+    }
+
+    @TearDown
+    public void printFootprint() {
+        long decodedBytes = GraphLayout.parseInstance(decoded).totalSize();
+        long recordBytes = GraphLayout.parseInstance(records).totalSize();
+        System.out.println(String.format("%n%d live matches: %d bytes per Match, %d bytes per LiveMatch",
+                matches, decodedBytes / matches, recordBytes / matches));
+    }
+
+    @Benchmark
+    public LiveMatch compact() {
+        return LiveMatch.of(match.getMatchID(), match);
+    }
+
+    /**
+     * Builds a match as decoded from the database, with distinct strings for every field.
+     */
+    private static Match match(String id, long firstSciper, int playerCount) {
+        Match.Builder builder = new Match.Builder()
+                .setMatchID(id)
+                .setLocation(new GPSPoint(46.52 + firstSciper * 1e-7, 6.56))
+                .setDescription(new String("Satellite, table near the bar"));
+        Map<String, Boolean> hasCards = new HashMap<>();
+        try {
+            for (int i = 0; i < playerCount; ++i) {
+                long sciper = firstSciper + i;
+                builder.addPlayer(new Player(new Player.PlayerID(sciper), "Last" + sciper, "First" + sciper, 1000));
+                hasCards.put(Long.toString(sciper), i == 0);
+            }
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("Duplicate player in match", e);
+        }
+        builder.setHasCards(hasCards);
+        Match m = builder.build();
+        if (playerCount == 4) {
+            m.setStatus(Match.MatchStatus.ACTIVE);
+            for (int i = 0; i < playerCount; ++i) {
+                m.setTeam(i / 2, new Player.PlayerID(firstSciper + i));
+            }
+        }
+        return m;
+    }
+}
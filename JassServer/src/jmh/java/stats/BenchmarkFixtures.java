@@ -0,0 +1,69 @@
+package stats;
+
+import model.Match;
+import model.Player;
+
+/**
+ * Builders for the realistic objects used by the benchmarks.
+ */
+final class BenchmarkFixtures {
+    static final long DAY = 24L * 3600 * 1000;
+    static final long FIRST_DAY = 1477958400000L; // 2016-11-01
+
+    private BenchmarkFixtures() {
+    }
+
+    static Player player(long sciper) {
+        return new Player(new Player.PlayerID(sciper), "Last" + sciper, "First" + sciper, 1000);
+    }
+
+    /**
+     * Builds the stats of a finished match whose first two players form Team0.
+     *
+     * @param matchId the id of the match
+     * @param lineup  the scipers of the players, Team0 then Team1
+     * @param winner  the index of the winning team
+     * @return the stats of the finished match
+     */
+    static MatchStats finishedMatch(String matchId, long[] lineup, int winner) {
+        Match.Builder builder = new Match.Builder().setMatchID(matchId);
+        try {
+            for (long sciper : lineup) {
+                builder.addPlayer(player(sciper));
+            }
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("Duplicate player in lineup", e);
+        }
+        Match match = builder.build();
+        for (int i = 0; i < lineup.length; ++i) {
+            match.setTeam(i / 2, new Player.PlayerID(lineup[i]));
+        }
+        MatchStats stats = new MatchStats(match);
+        stats.setWinnerIndex(winner);
+        return stats;
+    }
+
+    /**
+     * Builds the stats of a player who played the given number of matches every day, rotating
+     * through the given number of partners.
+     *
+     * @param sciper        the player
+     * @param days          the number of days with matches, hence of quoteByDate buckets
+     * @param partners      the number of distinct partners
+     * @param matchesPerDay the number of matches played each day
+     * @return the stats of the player
+     */
+    static UserStats history(long sciper, int days, int partners, int matchesPerDay) {
+        UserStats stats = new UserStats(new Player.PlayerID(sciper));
+        int played = 0;
+        for (int d = 0; d < days; ++d) {
+            for (int k = 0; k < matchesPerDay; ++k) {
+                long partner = 200000 + played % partners;
+                long[] lineup = {sciper, partner, 300000 + played % 97, 400000 + played % 89};
+                stats.update(finishedMatch("m" + played, lineup, played % 3 == 0 ? 1 : 0), FIRST_DAY + d * DAY);
+                ++played;
+            }
+        }
+        return stats;
+    }
+}
@@ -0,0 +1,36 @@
+package stats;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of recording the score of a round, which is done after every hand during a match.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MatchStatsBenchmark {
+    private MatchStats stats;
+    private int team;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        stats = BenchmarkFixtures.finishedMatch("bench", new long[]{100000, 100001, 100002, 100003}, -1);
+        team = 0;
+    }
+
+    @Benchmark
+    public Integer setScore() {
+        team = 1 - team;
+        stats.setScore(team, 157);
+        return stats.getTotalMatchScore(team);
+    }
+}
@@ -0,0 +1,45 @@
+package stats;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of ingesting a finished match into the stats of a player with a long history.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class UserStatsBenchmark {
+    private static final long SCIPER = 100000;
+
+    @Param({"30", "365", "1000"})
+    public int days;
+
+    @Param({"5", "200"})
+    public int partners;
+
+    private UserStats stats;
+    private MatchStats match;
+    private long lastDay;
+
+    @Setup
+    public void setUp() {
+        stats = BenchmarkFixtures.history(SCIPER, days, partners, 3);
+        match = BenchmarkFixtures.finishedMatch("bench", new long[]{SCIPER, 200001, 300001, 400001}, 0);
+        // Updates fall in the last bucket so the history keeps its size across invocations
+        lastDay = BenchmarkFixtures.FIRST_DAY + (days - 1) * BenchmarkFixtures.DAY;
+    }
+
+    @Benchmark
+    public UserStats update() {
+        return stats.update(match, lastDay);
+    }
+}
@@ -0,0 +1,53 @@
+package stats.trueskill;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the cumulative distribution and of its inverse, the innermost calls of a rating update.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class GaussianDistributionBenchmark {
+    private static final int INPUTS = 1024;
+
+    private final double[] xs = new double[INPUTS];
+    private final double[] ps = new double[INPUTS];
+    private int i;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        for (int k = 0; k < INPUTS; ++k) {
+            xs[k] = random.nextGaussian() * 2;
+            ps[k] = 0.001 + 0.998 * random.nextDouble();
+        }
+    }
+
+    @Benchmark
+    public double cumulativeTo() {
+        i = (i + 1) & (INPUTS - 1);
+        return GaussianDistribution.exactCumulativeTo(xs[i]);
+    }
+
+    @Benchmark
+    public double cumulativeToTable() {
+        i = (i + 1) & (INPUTS - 1);
+        return GaussianDistribution.tableCumulativeTo(xs[i]);
+    }
+
+    @Benchmark
+    public double inverseCumulativeTo() {
+        i = (i + 1) & (INPUTS - 1);
+        return GaussianDistribution.inverseCumulativeTo(ps[i]);
+    }
+}
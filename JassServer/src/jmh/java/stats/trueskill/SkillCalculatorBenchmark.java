@@ -0,0 +1,59 @@
+package stats.trueskill;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of a rating update through the Rank based wrappers and through the primitive API.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SkillCalculatorBenchmark {
+    private final List<Rank> ranks = new ArrayList<>();
+    private final double[] means = new double[4];
+    private final double[] standardDeviations = new double[4];
+    private final double[] newMeans = new double[4];
+    private final double[] newStandardDeviations = new double[4];
+    private int winner;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        for (int i = 0; i < 4; ++i) {
+            means[i] = 15 + 20 * random.nextDouble();
+            standardDeviations[i] = 1 + 7 * random.nextDouble();
+            ranks.add(new Rank(means[i], standardDeviations[i]));
+        }
+    }
+
+    @Benchmark
+    public Rank calculateNewRatingsGameInfo() {
+        winner = 1 - winner;
+        return SkillCalculator.calculateNewRatings(GameInfo.getDefaultGameInfo(), ranks, winner);
+    }
+
+    @Benchmark
+    public Rank calculateNewRatingsContext() {
+        winner = 1 - winner;
+        return SkillCalculator.calculateNewRatings(RatingContext.DEFAULT, ranks, winner);
+    }
+
+    @Benchmark
+    public double[] calculateNewRatingsPrimitive() {
+        winner = 1 - winner;
+        SkillCalculator.calculateNewRatings(RatingContext.DEFAULT, means, standardDeviations, winner,
+                newMeans, newStandardDeviations);
+        return newMeans;
+    }
+}
@@ -0,0 +1,18 @@
+package db;
+
+/**
+ * Listener of the changes of the direct children of a location. When it is registered it
+ * receives {@link #onChildAdded(Snapshot)} for every existing child, then the changes in the
+ * order they are made. The events of all the listeners are delivered on a single thread.
+ */
+public interface ChildListener {
+
+    void onChildAdded(Snapshot snapshot);
+
+    void onChildChanged(Snapshot snapshot);
+
+    /**
+     * @param snapshot the last value of the removed child
+     */
+    void onChildRemoved(Snapshot snapshot);
+}
@@ -0,0 +1,37 @@
+package db;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Completion listener shared by a known number of writes, which notifies its own listener once
+ * all of them have completed, with the first error if any of them failed.
+ */
+public final class CompletionCounter implements CompletionListener {
+    private final AtomicInteger pending;
+    private final CompletionListener done;
+    private volatile String error;
+
+    /**
+     * Constructor
+     *
+     * @param writes the number of writes sharing this listener
+     * @param done   the listener notified after the last write
+     */
+    public CompletionCounter(int writes, CompletionListener done) {
+        if (writes <= 0) {
+            throw new IllegalArgumentException("The number of writes must be positive");
+        }
+        this.pending = new AtomicInteger(writes);
+        this.done = done;
+    }
+
+    @Override
+    public void onComplete(String error) {
+        if (error != null && this.error == null) {
+            this.error = error;
+        }
+        if (pending.decrementAndGet() == 0) {
+            done.onComplete(this.error);
+        }
+    }
+}
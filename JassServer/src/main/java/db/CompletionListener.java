@@ -0,0 +1,12 @@
+package db;
+
+/**
+ * Receiver of the acknowledgement of a write.
+ */
+public interface CompletionListener {
+
+    /**
+     * @param error the reason why the write failed, null if it succeeded
+     */
+    void onComplete(String error);
+}
@@ -0,0 +1,164 @@
+package db;
+
+import com.google.firebase.database.ChildEventListener;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.ValueEventListener;
+import server.Main;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link Reference} forwarding to a Firebase {@link DatabaseReference}.
+ */
+public class FirebaseReference implements Reference {
+    // Firebase listeners registered for each listener and location, to be able to remove them
+    private static final Map<Registration, ChildEventListener> registered = new ConcurrentHashMap<>();
+
+    private final DatabaseReference ref;
+
+    public FirebaseReference(DatabaseReference ref) {
+        this.ref = ref;
+    }
+
+    @Override
+    public String getKey() {
+        return ref.getKey();
+    }
+
+    @Override
+    public Reference child(String path) {
+        return new FirebaseReference(ref.child(path));
+    }
+
+    @Override
+    public Reference push() {
+        return new FirebaseReference(ref.push());
+    }
+
+    @Override
+    public void setValue(Object value) {
+        ref.setValue(value);
+    }
+
+    @Override
+    public void setValue(Object value, CompletionListener listener) {
+        ref.setValue(value, completion(listener));
+    }
+
+    @Override
+    public void removeValue() {
+        ref.removeValue();
+    }
+
+    @Override
+    public void removeValue(CompletionListener listener) {
+        ref.removeValue(completion(listener));
+    }
+
+    @Override
+    public void updateChildren(Map<String, Object> update) {
+        ref.updateChildren(update);
+    }
+
+    @Override
+    public void updateChildren(Map<String, Object> update, CompletionListener listener) {
+        ref.updateChildren(update, completion(listener));
+    }
+
+    @Override
+    public void addChildListener(ChildListener listener) {
+        ChildEventListener forwarder = new ChildEventListener() {
+            @Override
+            public void onChildAdded(DataSnapshot dataSnapshot, String s) {
+                listener.onChildAdded(new FirebaseSnapshot(dataSnapshot));
+            }
+
+            @Override
+            public void onChildChanged(DataSnapshot dataSnapshot, String s) {
+                listener.onChildChanged(new FirebaseSnapshot(dataSnapshot));
+            }
+
+            @Override
+            public void onChildRemoved(DataSnapshot dataSnapshot) {
+                listener.onChildRemoved(new FirebaseSnapshot(dataSnapshot));
+            }
+
+            @Override
+            public void onChildMoved(DataSnapshot dataSnapshot, String s) {
+
+            }
+
+            @Override
+            public void onCancelled(DatabaseError databaseError) {
+                Main.logger.error("Listener on " + ref + " cancelled: " + databaseError.getMessage());
+            }
+        };
+        registered.put(new Registration(ref, listener), forwarder);
+        ref.addChildEventListener(forwarder);
+    }
+
+    @Override
+    public void removeChildListener(ChildListener listener) {
+        ChildEventListener forwarder = registered.remove(new Registration(ref, listener));
+        if (forwarder != null) {
+            ref.removeEventListener(forwarder);
+        }
+    }
+
+    @Override
+    public void readOnce(ValueListener listener) {
+        ref.addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(DataSnapshot dataSnapshot) {
+                listener.onValue(new FirebaseSnapshot(dataSnapshot));
+            }
+
+            @Override
+            public void onCancelled(DatabaseError databaseError) {
+                Main.logger.error("Read of " + ref + " cancelled: " + databaseError.getMessage());
+                listener.onCancelled(databaseError.getMessage());
+            }
+        });
+    }
+
+    @Override
+    public String toString() {
+        return ref.toString();
+    }
+
+    /**
+     * A listener registered at a location. The same listener may be registered at several
+     * locations, the location being identified by its URL.
+     */
+    private static final class Registration {
+        private final String location;
+        private final ChildListener listener;
+
+        Registration(DatabaseReference ref, ChildListener listener) {
+            this.location = ref.toString();
+            this.listener = listener;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Registration)) {
+                return false;
+            }
+            Registration other = (Registration) o;
+            return location.equals(other.location) && listener.equals(other.listener);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * location.hashCode() + listener.hashCode();
+        }
+    }
+
+    private static DatabaseReference.CompletionListener completion(CompletionListener listener) {
+        return (databaseError, databaseReference) ->
+                listener.onComplete(databaseError == null ? null : databaseError.getMessage());
+    }
+}
@@ -0,0 +1,56 @@
+package db;
+
+import com.google.firebase.database.DataSnapshot;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link Snapshot} backed by a Firebase {@link DataSnapshot}.
+ */
+class FirebaseSnapshot implements Snapshot {
+    private final DataSnapshot snapshot;
+
+    FirebaseSnapshot(DataSnapshot snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    @Override
+    public String getKey() {
+        return snapshot.getKey();
+    }
+
+    @Override
+    public boolean exists() {
+        return snapshot.exists();
+    }
+
+    @Override
+    public Object getValue() {
+        return snapshot.getValue();
+    }
+
+    @Override
+    public <T> T getValue(Class<T> valueType) {
+        return snapshot.getValue(valueType);
+    }
+
+    @Override
+    public Snapshot child(String path) {
+        return new FirebaseSnapshot(snapshot.child(path));
+    }
+
+    @Override
+    public Iterable<Snapshot> getChildren() {
+        List<Snapshot> children = new ArrayList<>((int) snapshot.getChildrenCount());
+        for (DataSnapshot child : snapshot.getChildren()) {
+            children.add(new FirebaseSnapshot(child));
+        }
+        return children;
+    }
+
+    @Override
+    public String toString() {
+        return snapshot.toString();
+    }
+}
@@ -0,0 +1,61 @@
+package db;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Delays applied by the {@link MemoryDatabase} to simulate the network: the time before a read
+ * is answered, before a write is acknowledged and before the listeners see a change. Each delay
+ * is its base value plus a uniformly distributed jitter.
+ */
+public final class LatencyModel {
+
+    /**
+     * No delay at all, the callbacks run as soon as the event thread is free.
+     */
+    public static final LatencyModel NONE = new LatencyModel(0, 0, 0, 0);
+
+    private final long readMillis;
+    private final long writeMillis;
+    private final long eventMillis;
+    private final long jitterMillis;
+
+    /**
+     * Constructor
+     *
+     * @param readMillis   the delay before a single read is answered
+     * @param writeMillis  the delay before a write is acknowledged
+     * @param eventMillis  the delay before the listeners receive a change
+     * @param jitterMillis the maximum random delay added to each of them
+     */
+    public LatencyModel(long readMillis, long writeMillis, long eventMillis, long jitterMillis) {
+        if (readMillis < 0 || writeMillis < 0 || eventMillis < 0 || jitterMillis < 0) {
+            throw new IllegalArgumentException("Delays cannot be negative");
+        }
+        this.readMillis = readMillis;
+        this.writeMillis = writeMillis;
+        this.eventMillis = eventMillis;
+        this.jitterMillis = jitterMillis;
+    }
+
+    long readDelay() {
+        return readMillis + jitter();
+    }
+
+    long writeDelay() {
+        return writeMillis + jitter();
+    }
+
+    long eventDelay() {
+        return eventMillis + jitter();
+    }
+
+    private long jitter() {
+        return jitterMillis == 0 ? 0 : ThreadLocalRandom.current().nextLong(jitterMillis + 1);
+    }
+
+    @Override
+    public String toString() {
+        return "read " + readMillis + " ms, write " + writeMillis + " ms, event " + eventMillis
+                + " ms, jitter " + jitterMillis + " ms";
+    }
+}
@@ -0,0 +1,451 @@
+package db;
+
+import com.google.firebase.database.utilities.encoding.CustomClassMapper;
+import server.Main;
+import tools.metrics.LatencyHistogram;
+import tools.metrics.Metrics;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory stand-in of the Firebase realtime database, for offline runs and benchmarks.
+ * <p>
+ * The data is a tree of sorted maps whose leaves are strings, longs, doubles and booleans, as
+ * Firebase stores it: written objects go through the Firebase class mapper, lists become maps
+ * indexed by position and are read back as lists, empty nodes disappear. Writes are applied
+ * immediately, like the local writes of a Firebase client, and the listeners of the locations
+ * above them receive one added, changed or removed event per affected child.
+ * <p>
+ * All the callbacks run on a single event thread, as with Firebase, after the delays of the
+ * {@link LatencyModel}. Child events keep the order of the writes whatever the jitter.
+ */
+public class MemoryDatabase {
+
+    /**
+     * The order of the keys of Firebase: integer keys first, in numeric order, then the other
+     * keys in lexicographic order.
+     */
+    static final Comparator<String> KEY_ORDER = (a, b) -> {
+        Long ia = asIndex(a);
+        Long ib = asIndex(b);
+        if (ia != null && ib != null) {
+            return ia.compareTo(ib);
+        } else if (ia != null) {
+            return -1;
+        } else if (ib != null) {
+            return 1;
+        }
+        return a.compareTo(b);
+    };
+
+    private final LatencyModel latency;
+    private final ScheduledExecutorService eventThread;
+    private final AtomicLong pendingCallbacks = new AtomicLong();
+    private final LatencyHistogram deliveryLag = Metrics.timerLag("memoryDatabaseCallbacks");
+
+    // Guarded by this
+    private TreeMap<String, Object> data = new TreeMap<>(KEY_ORDER);
+    private final Map<String, List<ChildListener>> listeners = new HashMap<>();
+    private long lastEventAt;
+
+    public MemoryDatabase() {
+        this(LatencyModel.NONE);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param latency the delays of the reads, the write acknowledgements and the events
+     */
+    public MemoryDatabase(LatencyModel latency) {
+        this.latency = latency;
+        this.eventThread = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "memory-db-events");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * @return the reference of the root of the database
+     */
+    public Reference root() {
+        return new MemoryReference(this, "");
+    }
+
+    /**
+     * @return the number of callbacks waiting to be delivered
+     */
+    public long pendingCallbacks() {
+        return pendingCallbacks.get();
+    }
+
+    /**
+     * Waits until every callback scheduled so far has been delivered.
+     *
+     * @param timeout the maximum time to wait
+     * @param unit    the unit of the timeout
+     * @return true if there is no callback left, false if the timeout elapsed
+     */
+    public boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (pendingCallbacks.get() > 0) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            Thread.sleep(1);
+        }
+        return true;
+    }
+
+    /**
+     * Stops the event thread, dropping the callbacks not delivered yet.
+     */
+    public void shutdown() {
+        eventThread.shutdownNow();
+    }
+
+    void write(Map<String, Object> update, CompletionListener listener) {
+        // The conversion of the objects is done outside of the lock
+        Map<String, Object> values = new HashMap<>();
+        for (Map.Entry<String, Object> e : update.entrySet()) {
+            Object value = e.getValue() == null ? null : CustomClassMapper.convertToPlainJavaTypes(e.getValue());
+            values.put(e.getKey(), normalize(value));
+        }
+
+        synchronized (this) {
+            List<Diff> diffs = new ArrayList<>();
+            for (Map.Entry<String, List<ChildListener>> e : listeners.entrySet()) {
+                Diff diff = Diff.before(e.getKey(), values.keySet(), children(e.getKey()));
+                if (diff != null) {
+                    diffs.add(diff);
+                }
+            }
+            for (Map.Entry<String, Object> e : values.entrySet()) {
+                set(e.getKey(), e.getValue());
+            }
+            for (Diff diff : diffs) {
+                fire(diff, listeners.get(diff.path));
+            }
+        }
+
+        if (listener != null) {
+            schedule(() -> listener.onComplete(null), latency.writeDelay());
+        }
+    }
+
+    synchronized void addListener(String path, ChildListener listener) {
+        listeners.computeIfAbsent(path, p -> new CopyOnWriteArrayList<>()).add(listener);
+        Map<String, Object> children = children(path);
+        if (children != null) {
+            for (Map.Entry<String, Object> child : children.entrySet()) {
+                MemorySnapshot snapshot = new MemorySnapshot(child.getKey(), copy(child.getValue()));
+                scheduleEvent(() -> listener.onChildAdded(snapshot));
+            }
+        }
+    }
+
+    synchronized void removeListener(String path, ChildListener listener) {
+        List<ChildListener> registered = listeners.get(path);
+        if (registered != null) {
+            registered.remove(listener);
+            if (registered.isEmpty()) {
+                listeners.remove(path);
+            }
+        }
+    }
+
+    synchronized void read(String path, String key, ValueListener listener) {
+        MemorySnapshot snapshot = new MemorySnapshot(key, copy(get(path)));
+        schedule(() -> listener.onValue(snapshot), latency.readDelay());
+    }
+
+    private void fire(Diff diff, Collection<ChildListener> registered) {
+        Map<String, Object> after = children(diff.path);
+        for (String key : diff.keys(after)) {
+            Object before = diff.before.get(key);
+            Object now = after == null ? null : after.get(key);
+            if (before == null && now != null) {
+                MemorySnapshot snapshot = new MemorySnapshot(key, copy(now));
+                for (ChildListener l : registered) {
+                    scheduleEvent(() -> l.onChildAdded(snapshot));
+                }
+            } else if (before != null && now == null) {
+                MemorySnapshot snapshot = new MemorySnapshot(key, before);
+                for (ChildListener l : registered) {
+                    scheduleEvent(() -> l.onChildRemoved(snapshot));
+                }
+            } else if (before != null && !before.equals(now)) {
+                MemorySnapshot snapshot = new MemorySnapshot(key, copy(now));
+                for (ChildListener l : registered) {
+                    scheduleEvent(() -> l.onChildChanged(snapshot));
+                }
+            }
+        }
+    }
+
+    private Object get(String path) {
+        Object node = data;
+        for (String segment : segments(path)) {
+            if (!(node instanceof Map)) {
+                return null;
+            }
+            node = ((Map<?, ?>) node).get(segment);
+        }
+        return node == data && data.isEmpty() ? null : node;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> children(String path) {
+        Object node = get(path);
+        return node instanceof Map ? (Map<String, Object>) node : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void set(String path, Object value) {
+        String[] segments = segments(path);
+        if (segments.length == 0) {
+            if (value != null && !(value instanceof Map)) {
+                throw new IllegalArgumentException("Only objects can be written at the root");
+            }
+            data = value == null ? new TreeMap<>(KEY_ORDER) : (TreeMap<String, Object>) value;
+            return;
+        }
+        List<TreeMap<String, Object>> parents = new ArrayList<>(segments.length);
+        TreeMap<String, Object> node = data;
+        for (int i = 0; i < segments.length - 1; ++i) {
+            parents.add(node);
+            Object child = node.get(segments[i]);
+            if (!(child instanceof TreeMap)) {
+                if (value == null) {
+                    return;
+                }
+                child = new TreeMap<String, Object>(KEY_ORDER);
+                node.put(segments[i], child);
+            }
+            node = (TreeMap<String, Object>) child;
+        }
+        if (value == null) {
+            node.remove(segments[segments.length - 1]);
+            // Firebase does not keep empty nodes
+            for (int i = parents.size() - 1; i >= 0 && node.isEmpty(); --i) {
+                parents.get(i).remove(segments[i]);
+                node = parents.get(i);
+            }
+        } else {
+            node.put(segments[segments.length - 1], value);
+        }
+    }
+
+    private void scheduleEvent(Runnable event) {
+        // Child events are never reordered by the jitter
+        long now = System.currentTimeMillis();
+        lastEventAt = Math.max(lastEventAt, now + latency.eventDelay());
+        schedule(event, lastEventAt - now);
+    }
+
+    private void schedule(Runnable callback, long delayMillis) {
+        pendingCallbacks.incrementAndGet();
+        long due = System.currentTimeMillis() + delayMillis;
+        eventThread.schedule(() -> {
+            // Time the callback waited for the event thread after its delay
+            deliveryLag.recordMillis(System.currentTimeMillis() - due);
+            try {
+                callback.run();
+            } catch (RuntimeException e) {
+                Main.logger.error("Memory database callback failed", e);
+            } finally {
+                pendingCallbacks.decrementAndGet();
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Converts plain Java types to the stored form: sorted maps without empty nodes, lists
+     * indexed by position, integral numbers as longs.
+     */
+    static Object normalize(Object value) {
+        if (value instanceof Map) {
+            TreeMap<String, Object> node = new TreeMap<>(KEY_ORDER);
+            for (Map.Entry<?, ?> e : ((Map<?, ?>) value).entrySet()) {
+                Object child = normalize(e.getValue());
+                if (child != null) {
+                    node.put(String.valueOf(e.getKey()), child);
+                }
+            }
+            return node.isEmpty() ? null : node;
+        } else if (value instanceof List) {
+            TreeMap<String, Object> node = new TreeMap<>(KEY_ORDER);
+            List<?> list = (List<?>) value;
+            for (int i = 0; i < list.size(); ++i) {
+                Object child = normalize(list.get(i));
+                if (child != null) {
+                    node.put(Integer.toString(i), child);
+                }
+            }
+            return node.isEmpty() ? null : node;
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            return ((Number) value).longValue();
+        } else if (value instanceof Float || value instanceof Double) {
+            double d = ((Number) value).doubleValue();
+            return d == Math.rint(d) && Math.abs(d) < Long.MAX_VALUE ? (Object) (long) d : (Object) d;
+        }
+        return value;
+    }
+
+    /**
+     * Converts a stored node back to plain Java types, turning the maps whose keys are mostly
+     * consecutive indices into lists, as Firebase does.
+     */
+    static Object export(Object node) {
+        if (!(node instanceof Map)) {
+            return node;
+        }
+        Map<?, ?> children = (Map<?, ?>) node;
+        long maxIndex = -1;
+        for (Object key : children.keySet()) {
+            Long index = asIndex((String) key);
+            if (index == null || index < 0) {
+                maxIndex = -1;
+                break;
+            }
+            maxIndex = Math.max(maxIndex, index);
+        }
+        if (maxIndex >= 0 && 2L * children.size() > maxIndex + 1) {
+            List<Object> list = new ArrayList<>((int) maxIndex + 1);
+            for (int i = 0; i <= maxIndex; ++i) {
+                list.add(export(children.get(Integer.toString(i))));
+            }
+            return list;
+        }
+        Map<String, Object> map = new HashMap<>();
+        for (Map.Entry<?, ?> e : children.entrySet()) {
+            map.put((String) e.getKey(), export(e.getValue()));
+        }
+        return map;
+    }
+
+    private static Object copy(Object node) {
+        if (!(node instanceof Map)) {
+            return node;
+        }
+        TreeMap<String, Object> copy = new TreeMap<>(KEY_ORDER);
+        for (Map.Entry<?, ?> e : ((Map<?, ?>) node).entrySet()) {
+            copy.put((String) e.getKey(), copy(e.getValue()));
+        }
+        return copy;
+    }
+
+    static String[] segments(String path) {
+        List<String> segments = new ArrayList<>();
+        for (String segment : path.split("/")) {
+            if (!segment.isEmpty()) {
+                segments.add(segment);
+            }
+        }
+        return segments.toArray(new String[segments.size()]);
+    }
+
+    static String join(String base, String path) {
+        StringBuilder joined = new StringBuilder(base);
+        for (String segment : segments(path)) {
+            if (joined.length() > 0) {
+                joined.append('/');
+            }
+            joined.append(segment);
+        }
+        return joined.toString();
+    }
+
+    private static Long asIndex(String key) {
+        int length = key.length();
+        if (length == 0 || length > 11) {
+            return null;
+        }
+        int start = key.charAt(0) == '-' ? 1 : 0;
+        if (start == length || (key.charAt(start) == '0' && length > start + 1)) {
+            return null;
+        }
+        for (int i = start; i < length; ++i) {
+            char c = key.charAt(i);
+            if (c < '0' || c > '9') {
+                return null;
+            }
+        }
+        long value = Long.parseLong(key);
+        return value < Integer.MIN_VALUE || value > Integer.MAX_VALUE ? null : value;
+    }
+
+    /**
+     * The children of a listened location before a write, for the keys the write may affect.
+     */
+    private static final class Diff {
+        private final String path;
+        // Whether a written location contains the listened one, so that any child may change
+        private final boolean whole;
+        // The previous value of the affected children, copied if the write happens below them
+        private final Map<String, Object> before = new HashMap<>();
+
+        private Diff(String path, boolean whole) {
+            this.path = path;
+            this.whole = whole;
+        }
+
+        static Diff before(String path, Collection<String> written, Map<String, Object> children) {
+            boolean whole = false;
+            List<String> below = new ArrayList<>();
+            for (String w : written) {
+                if (w.isEmpty() || w.equals(path) || path.startsWith(w + "/")) {
+                    whole = true;
+                } else if (path.isEmpty() || w.startsWith(path + "/")) {
+                    String rest = path.isEmpty() ? w : w.substring(path.length() + 1);
+                    int slash = rest.indexOf('/');
+                    below.add(slash < 0 ? rest : rest.substring(0, slash));
+                }
+            }
+            if (!whole && below.isEmpty()) {
+                return null;
+            }
+            Diff diff = new Diff(path, whole);
+            if (children != null) {
+                if (whole) {
+                    // Replaced subtrees are detached, not modified
+                    diff.before.putAll(children);
+                }
+                for (String key : below) {
+                    Object child = children.get(key);
+                    if (child != null) {
+                        diff.before.put(key, copy(child));
+                    }
+                }
+            }
+            if (!whole) {
+                for (String key : below) {
+                    diff.before.putIfAbsent(key, null);
+                }
+            }
+            return diff;
+        }
+
+        Collection<String> keys(Map<String, Object> after) {
+            TreeSet<String> keys = new TreeSet<>(KEY_ORDER);
+            keys.addAll(before.keySet());
+            if (whole && after != null) {
+                keys.addAll(after.keySet());
+            }
+            return keys;
+        }
+    }
+}
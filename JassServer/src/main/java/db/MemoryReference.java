@@ -0,0 +1,88 @@
+package db;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * {@link Reference} to a location of a {@link MemoryDatabase}.
+ */
+class MemoryReference implements Reference {
+    private final MemoryDatabase database;
+    // Segments separated by slashes, empty for the root
+    private final String path;
+
+    MemoryReference(MemoryDatabase database, String path) {
+        this.database = database;
+        this.path = path;
+    }
+
+    @Override
+    public String getKey() {
+        return path.isEmpty() ? null : path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    @Override
+    public Reference child(String childPath) {
+        return new MemoryReference(database, MemoryDatabase.join(path, childPath));
+    }
+
+    @Override
+    public Reference push() {
+        return child(PushIds.next());
+    }
+
+    @Override
+    public void setValue(Object value) {
+        setValue(value, null);
+    }
+
+    @Override
+    public void setValue(Object value, CompletionListener listener) {
+        database.write(Collections.singletonMap(path, value), listener);
+    }
+
+    @Override
+    public void removeValue() {
+        setValue(null, null);
+    }
+
+    @Override
+    public void removeValue(CompletionListener listener) {
+        setValue(null, listener);
+    }
+
+    @Override
+    public void updateChildren(Map<String, Object> update) {
+        updateChildren(update, null);
+    }
+
+    @Override
+    public void updateChildren(Map<String, Object> update, CompletionListener listener) {
+        Map<String, Object> absolute = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> e : update.entrySet()) {
+            absolute.put(MemoryDatabase.join(path, e.getKey()), e.getValue());
+        }
+        database.write(absolute, listener);
+    }
+
+    @Override
+    public void addChildListener(ChildListener listener) {
+        database.addListener(path, listener);
+    }
+
+    @Override
+    public void removeChildListener(ChildListener listener) {
+        database.removeListener(path, listener);
+    }
+
+    @Override
+    public void readOnce(ValueListener listener) {
+        database.read(path, getKey(), listener);
+    }
+
+    @Override
+    public String toString() {
+        return "memory:/" + path;
+    }
+}
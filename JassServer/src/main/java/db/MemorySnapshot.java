@@ -0,0 +1,72 @@
+package db;
+
+import com.google.firebase.database.utilities.encoding.CustomClassMapper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link Snapshot} of the data of a {@link MemoryDatabase}. It owns its data, which the database
+ * copies when the snapshot is taken.
+ */
+class MemorySnapshot implements Snapshot {
+    private final String key;
+    // A map of children or a leaf value, null if there is no data
+    private final Object node;
+
+    MemorySnapshot(String key, Object node) {
+        this.key = key;
+        this.node = node;
+    }
+
+    @Override
+    public String getKey() {
+        return key;
+    }
+
+    @Override
+    public boolean exists() {
+        return node != null;
+    }
+
+    @Override
+    public Object getValue() {
+        return MemoryDatabase.export(node);
+    }
+
+    @Override
+    public <T> T getValue(Class<T> valueType) {
+        return node == null ? null : CustomClassMapper.convertToCustomClass(MemoryDatabase.export(node), valueType);
+    }
+
+    @Override
+    public Snapshot child(String path) {
+        Object current = node;
+        String childKey = key;
+        for (String segment : MemoryDatabase.segments(path)) {
+            current = current instanceof Map ? ((Map<?, ?>) current).get(segment) : null;
+            childKey = segment;
+        }
+        return new MemorySnapshot(childKey, current);
+    }
+
+    @Override
+    public Iterable<Snapshot> getChildren() {
+        if (!(node instanceof Map)) {
+            return Collections.emptyList();
+        }
+        Map<?, ?> children = (Map<?, ?>) node;
+        List<Snapshot> result = new ArrayList<>(children.size());
+        for (Map.Entry<?, ?> e : children.entrySet()) {
+            result.add(new MemorySnapshot((String) e.getKey(), e.getValue()));
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "MemorySnapshot { key = " + key + ", value = " + getValue() + " }";
+    }
+}
@@ -0,0 +1,49 @@
+package db;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Generator of keys in the format of the Firebase push ids: 8 characters encoding the time in
+ * milliseconds followed by 12 random characters, incremented when several ids are generated in
+ * the same millisecond, so that the keys sort in creation order.
+ */
+final class PushIds {
+    private static final String PUSH_CHARS = "-0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ_abcdefghijklmnopqrstuvwxyz";
+
+    private static long lastTime;
+    private static final int[] lastRandom = new int[12];
+
+    private PushIds() {
+    }
+
+    static synchronized String next() {
+        long now = System.currentTimeMillis();
+        boolean duplicateTime = now == lastTime;
+        lastTime = now;
+
+        char[] id = new char[20];
+        long time = now;
+        for (int i = 7; i >= 0; --i) {
+            id[i] = PUSH_CHARS.charAt((int) (time % 64));
+            time /= 64;
+        }
+        if (!duplicateTime) {
+            for (int i = 0; i < 12; ++i) {
+                lastRandom[i] = ThreadLocalRandom.current().nextInt(64);
+            }
+        } else {
+            int i = 11;
+            while (i >= 0 && lastRandom[i] == 63) {
+                lastRandom[i] = 0;
+                --i;
+            }
+            if (i >= 0) {
+                ++lastRandom[i];
+            }
+        }
+        for (int i = 0; i < 12; ++i) {
+            id[8 + i] = PUSH_CHARS.charAt(lastRandom[i]);
+        }
+        return new String(id);
+    }
+}
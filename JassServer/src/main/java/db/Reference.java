@@ -0,0 +1,95 @@
+package db;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Location in a realtime database, restricted to the operations the server uses: child
+ * listeners, single reads, and writes. Values are written with the same mapping as Firebase, so
+ * model objects can be written directly.
+ * <p>
+ * {@link FirebaseReference} forwards to Firebase, {@link MemoryDatabase} keeps the data in memory
+ * for offline runs and benchmarks.
+ */
+public interface Reference {
+
+    /**
+     * @return the last segment of the location, null for the root
+     */
+    String getKey();
+
+    /**
+     * @param path the relative path of a descendant, whose segments are separated by slashes
+     * @return the reference of the descendant
+     */
+    Reference child(String path);
+
+    /**
+     * @return a reference to a new child with a unique, chronologically ordered key
+     */
+    Reference push();
+
+    void setValue(Object value);
+
+    void setValue(Object value, CompletionListener listener);
+
+    void removeValue();
+
+    void removeValue(CompletionListener listener);
+
+    /**
+     * Writes several descendants at once, the listeners seeing a single change per child.
+     *
+     * @param update the values by relative path, null to remove a descendant
+     */
+    void updateChildren(Map<String, Object> update);
+
+    void updateChildren(Map<String, Object> update, CompletionListener listener);
+
+    void addChildListener(ChildListener listener);
+
+    void removeChildListener(ChildListener listener);
+
+    /**
+     * Reads the location once, the listener receiving the data on the event thread.
+     *
+     * @param listener the receiver of the data
+     */
+    void readOnce(ValueListener listener);
+
+    /**
+     * Reads the location once and waits for the data. It must not be called from the event
+     * thread, which delivers the data.
+     *
+     * @param timeout the maximum time to wait
+     * @param unit    the unit of the timeout
+     * @return the snapshot of the location
+     * @throws IllegalStateException if the read was cancelled or the data did not arrive in time
+     */
+    default Snapshot read(long timeout, TimeUnit unit) throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final Snapshot[] result = new Snapshot[1];
+        final String[] error = new String[1];
+        readOnce(new ValueListener() {
+            @Override
+            public void onValue(Snapshot snapshot) {
+                result[0] = snapshot;
+                latch.countDown();
+            }
+
+            @Override
+            public void onCancelled(String cancellation) {
+                error[0] = cancellation;
+                latch.countDown();
+            }
+        });
+        if (!latch.await(timeout, unit)) {
+            throw new IllegalStateException("Could not read " + this);
+        }
+        if (error[0] != null) {
+            throw new IllegalStateException("Read of " + this + " cancelled: " + error[0]);
+        }
+        return result[0];
+    }
+}
@@ -0,0 +1,42 @@
+package db;
+
+/**
+ * Immutable view of the data at a location of the database, at the time it was read.
+ */
+public interface Snapshot {
+
+    /**
+     * @return the last segment of the location of the data
+     */
+    String getKey();
+
+    /**
+     * @return true if there is data at the location
+     */
+    boolean exists();
+
+    /**
+     * @return the data as plain Java types (maps, lists, strings, numbers and booleans), null if
+     * there is none
+     */
+    Object getValue();
+
+    /**
+     * Converts the data to an object of the given class, with the same mapping as Firebase.
+     *
+     * @param valueType the class of the object
+     * @return the object, null if there is no data
+     */
+    <T> T getValue(Class<T> valueType);
+
+    /**
+     * @param path the relative path of a descendant, whose segments are separated by slashes
+     * @return the snapshot of the descendant, which may not exist
+     */
+    Snapshot child(String path);
+
+    /**
+     * @return the snapshots of the direct children, in key order
+     */
+    Iterable<Snapshot> getChildren();
+}
@@ -0,0 +1,18 @@
+package db;
+
+/**
+ * Receiver of a single read of a location.
+ */
+public interface ValueListener {
+
+    void onValue(Snapshot snapshot);
+
+    /**
+     * Called instead of {@link #onValue(Snapshot)} when the read is refused by the database, for
+     * instance by its security rules. The reference has already logged the error.
+     *
+     * @param error the reason why the read was refused
+     */
+    default void onCancelled(String error) {
+    }
+}
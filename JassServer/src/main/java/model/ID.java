@@ -9,6 +9,8 @@ import java.util.Objects;
 abstract class ID {
 
     private long id;
+    // The decimal form of the id, used as key in the database
+    private transient String text;
 
     public ID() {
         // Default constructor required for calls to DataSnapshot.getValue
@@ -41,7 +43,10 @@ abstract class ID {
 
     @Override
     public String toString() {
-        return Long.toString(id);
+        if (text == null) {
+            text = Long.toString(id);
+        }
+        return text;
     }
 
 }
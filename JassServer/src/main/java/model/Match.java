@@ -32,6 +32,13 @@ public class Match {
     private final static String SENTINEL = "SENTINEL";
     private final static int ONE_HOUR = 3600000;
 
+    // Read-only views of the players and teams, built once per instance. The team lists are only
+    // modified in place, so the views stay valid. Transient for Gson, Firebase ignores them as
+    // they have no getter.
+    private transient List<Player> playersView;
+    private transient Map<String, List<String>> teamsView;
+    private transient List<List<String>> teamsByNumber;
+
     /**
      * Default constructor required for calls to DataSnapshot.getValue when using Firebase.
      */
@@ -188,7 +195,10 @@ public class Match {
      * @return An immutable list of the players in the match
      */
     public List<Player> getPlayers() {
-        return Collections.unmodifiableList(players);
+        if (playersView == null) {
+            playersView = Collections.unmodifiableList(players);
+        }
+        return playersView;
     }
 
     /**
@@ -405,11 +415,53 @@ public class Match {
      * @return An immutable map of the team in this match
      */
     public Map<String, List<String>> getTeams() {
-        Map<String, List<String>> tmp = new HashMap<>();
-        for (String k : teams.keySet()) {
-            tmp.put(k, Collections.unmodifiableList(teams.get(k)));
+        buildTeamViews();
+        return teamsView;
+    }
+
+    /**
+     * Returns the ids of the members of a team, without copying them.
+     *
+     * @param teamNb The number of the team
+     * @return An immutable list of the ids of the members, or of the sentinel if the team is empty
+     * @throws IllegalArgumentException If the team number is not valid
+     */
+    public List<String> teamMembers(int teamNb) throws IllegalArgumentException {
+        buildTeamViews();
+        if (teamNb < 0 || teamNb >= teamsByNumber.size()) {
+            throw new IllegalArgumentException("Invalid team number specified.");
+        }
+        return teamsByNumber.get(teamNb);
+    }
+
+    /**
+     * Returns the number of the team of the player with the given id.
+     *
+     * @param playerID The id of the player, as written in the teams
+     * @return The team number if the player is in a team, -1 otherwise
+     */
+    public int teamOf(String playerID) {
+        buildTeamViews();
+        for (int teamNb = 0; teamNb < teamsByNumber.size(); ++teamNb) {
+            if (teamsByNumber.get(teamNb).contains(playerID)) {
+                return teamNb;
+            }
+        }
+        return -1;
+    }
+
+    private void buildTeamViews() {
+        if (teamsView == null) {
+            Map<String, List<String>> byName = new HashMap<>();
+            List<List<String>> byNumber = new ArrayList<>();
+            for (int teamNb = 0; teams != null && teams.containsKey("Team" + teamNb); ++teamNb) {
+                List<String> view = Collections.unmodifiableList(teams.get("Team" + teamNb));
+                byName.put("Team" + teamNb, view);
+                byNumber.add(view);
+            }
+            teamsByNumber = byNumber;
+            teamsView = Collections.unmodifiableMap(byName);
         }
-        return Collections.unmodifiableMap(tmp);
     }
 
     /**
@@ -599,11 +651,7 @@ public class Match {
      */
     public int teamNbForPlayer(Player p) {
         if (players.contains(p)) {
-            for (int teamNb = 0; teamNb < teams.size(); teamNb++) {
-                if (teams.get("Team" + teamNb).contains(p.getID().toString())) {
-                    return teamNb;
-                }
-            }
+            return teamOf(p.getID().toString());
         }
         return -1;
     }
@@ -3,33 +3,34 @@ package server;
 import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
-import com.mashape.unirest.http.Unirest;
 import com.mashape.unirest.http.exceptions.UnirestException;
-import model.Match;
-import model.Player;
 import redis.clients.jedis.Jedis;
+import tools.metrics.LatencyHistogram;
+import tools.metrics.Metrics;
 
-import java.util.List;
 import java.util.TimerTask;
 
 /**
  * Created by vinz on 11/1/16.
  */
 public class ExpirationNotifier extends TimerTask {
-    private Match m;
-    private Jedis jedis = new Jedis("redis");
+    private static final LatencyHistogram LAG = Metrics.timerLag("matchExpiration");
+    private static final LatencyHistogram REDIS_GET = Metrics.redis("get");
+    private LiveMatch m;
+    private Jedis jedis = new Jedis(Main.REDIS_URL);
     private Gson gson = new Gson();
 
-    ExpirationNotifier(Match m) {
+    ExpirationNotifier(LiveMatch m) {
         this.m = m;
     }
 
     @Override
     public void run() {
-        List<Player> players = m.getPlayers();
+        LAG.recordMillis(System.currentTimeMillis() - scheduledExecutionTime());
         JsonArray tokens = new JsonArray();
-        for (Player p : players) {
-           tokens.add(jedis.get(p.getID().toString()));
+        for (int i = 0; i < m.getPlayerCount(); ++i) {
+           String sciper = Long.toString(m.getPlayer(i));
+           tokens.add(REDIS_GET.time(() -> jedis.get(sciper)));
         }
         JsonObject data = new JsonObject();
         data.addProperty("type", "matchexpired");
@@ -42,7 +43,7 @@ public class ExpirationNotifier extends TimerTask {
         msg.add("registration_ids", tokens);
         try {
             Main.logger.info("Match " + m.getMatchID() + " has expired");
-            Main.logger.info(Unirest.post(Main.FCM_URL).body(gson.toJson(msg)).asString().getBody());
+            Main.logger.info(Main.sendFcm(gson.toJson(msg)));
         } catch (UnirestException e) {
             e.printStackTrace();
         }
@@ -0,0 +1,90 @@
+package server;
+
+import model.Match;
+import model.Player;
+
+import java.util.List;
+
+/**
+ * Compact record of a live match, kept by the {@link MatchListener} for every match of the
+ * database.
+ * <p>
+ * A decoded {@link Match} holds a list of players with boxed ids and names, a location, a
+ * description and two maps of strings for the cards and the teams. The server only needs the ids
+ * of the players to notify them, the expiration time and the size of the match, so the record
+ * keeps the players as an array of scipers, in the order in which they joined, and nothing else.
+ * The location and the quote are kept by the indexes. The {@link Match} itself is only used when
+ * the record is built from a snapshot.
+ */
+final class LiveMatch {
+    private static final int MAX_PLAYERS = 8;
+
+    private final String matchId;
+    private final long[] players;
+    private final long time;
+    private final byte maxPlayerNumber;
+
+    private LiveMatch(String matchId, long[] players, long time, int maxPlayerNumber) {
+        this.matchId = matchId;
+        this.players = players;
+        this.time = time;
+        this.maxPlayerNumber = (byte) maxPlayerNumber;
+    }
+
+    /**
+     * Builds the record of a decoded match.
+     *
+     * @param id    the key of the match in the database
+     * @param match the decoded match
+     * @return the record of the match
+     * @throws IllegalArgumentException if the match has more players than a record holds
+     */
+    static LiveMatch of(String id, Match match) {
+        List<Player> list = match.getPlayers();
+        if (list.size() > MAX_PLAYERS || match.getMaxPlayerNumber() > MAX_PLAYERS) {
+            throw new IllegalArgumentException("Too many players in match " + id);
+        }
+        long[] players = new long[list.size()];
+        for (int i = 0; i < players.length; ++i) {
+            players[i] = list.get(i).getID().getID();
+        }
+        return new LiveMatch(id, players, match.getTime(), match.getMaxPlayerNumber());
+    }
+
+    String getMatchID() {
+        return matchId;
+    }
+
+    long getTime() {
+        return time;
+    }
+
+    int getPlayerCount() {
+        return players.length;
+    }
+
+    boolean isFull() {
+        return players.length == maxPlayerNumber;
+    }
+
+    /**
+     * @param index the index of the player, in the order of arrival
+     * @return the sciper of the player
+     */
+    long getPlayer(int index) {
+        return players[index];
+    }
+
+    /**
+     * @param sciper the sciper of a player
+     * @return the index of the player, or -1 if he is not in the match
+     */
+    int indexOf(long sciper) {
+        for (int i = 0; i < players.length; ++i) {
+            if (players[i] == sciper) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
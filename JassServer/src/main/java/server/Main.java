@@ -5,66 +5,196 @@ import com.google.firebase.FirebaseOptions;
 import com.google.firebase.database.FirebaseDatabase;
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
+import com.mashape.unirest.http.HttpResponse;
 import com.mashape.unirest.http.Unirest;
 import com.mashape.unirest.http.exceptions.UnirestException;
+import db.FirebaseReference;
+import db.LatencyModel;
+import db.MemoryDatabase;
+import db.Reference;
+import model.GPSPoint;
+import model.Match;
+import model.Player;
 import redis.clients.jedis.Jedis;
+import spark.Request;
+import spark.Response;
+import spark.Route;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import stats.Leaderboard;
+import stats.NameDictionary;
 import stats.PlotMaster;
+import stats.QuoteHistogram;
+import stats.RatingCache;
 import stats.StatsBufferListener;
+import stats.StatsRebuilder;
+import stats.StatsSeriesCache;
+import stats.TeamBalancer;
+import stats.trueskill.GaussianDistribution;
+import stats.trueskill.MatchQualityCalculator;
+import stats.trueskill.RatingContext;
+import tools.loadtest.EventRecorder;
+import tools.loadtest.EventReplayer;
+import tools.loadtest.LoadReport;
+import tools.loadtest.WorkloadGenerator;
+import tools.metrics.Counter;
+import tools.metrics.LatencyHistogram;
+import tools.metrics.Metrics;
+import tools.metrics.TimedChildListener;
+import tools.metrics.Trace;
 
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import static spark.Spark.*;
 
 public class Main {
     static String FCM_KEY;
     static String FCM_URL;
+    static String PLOTTER_URL;
     static boolean DELETE_EXPIRED;
-    public static final String REDIS_URL = "redis";
+    static int PLOT_WORKERS;
+    static int PLOT_QUEUE_CAPACITY;
+    static int STATS_CACHE_CAPACITY;
+    public static final String REDIS_URL = envString("REDIS_URL", "redis");
+    private static final int PORT = 9999;
+    // Time given to the offline runs to process their backlog before the report
+    private static final long DRAIN_SECONDS = 60;
+    private static final double DEFAULT_NEARBY_RADIUS = 5000;
+    private static final double MAX_NEARBY_RADIUS = 100000;
+    private static final int DEFAULT_NEARBY_COUNT = 20;
+    private static final int MAX_NEARBY_COUNT = 100;
+    private static final int MAX_QUEUE_QUOTE_WINDOW = 1000;
+    private static final long PLAYER_READ_TIMEOUT_SECONDS = 5;
+    private static final int DEFAULT_MATCH_LIST_LIMIT = 50;
+    private static final int MAX_MATCH_LIST_LIMIT = 200;
+    private static final int DEFAULT_LEADERBOARD_PAGE_SIZE = 20;
+    private static final int MAX_LEADERBOARD_PAGE_SIZE = 100;
     public static Logger logger = LoggerFactory.getLogger(Main.class);
+    private static final LatencyHistogram FCM_SEND_DURATION =
+            Metrics.histogram("fcm_send_duration_seconds", "Duration of the requests to FCM");
+    // Counters by outcome, so that the requests do not build their labels
+    private static final ConcurrentMap<String, Counter> FCM_SENDS = new ConcurrentHashMap<>();
+    private static final LatencyHistogram REDIS_SET = Metrics.redis("set");
+    private static final LatencyHistogram REDIS_GET = Metrics.redis("get");
+    private static final LatencyHistogram REDIS_EXISTS = Metrics.redis("exists");
     static Gson gson;
     static Jedis jedis;
+    static RatingCache ratingCache;
+    static TeamBalancer teamBalancer;
+    static MatchLocationIndex matchLocationIndex;
+    static MatchmakingQueue matchmakingQueue;
+    static MatchQuoteIndex matchQuoteIndex;
+    static Leaderboard leaderboard;
+    static QuoteHistogram quoteHistogram;
+    static PlotMaster plotMaster;
+    static NameDictionary names;
+    static StatsSeriesCache statsSeriesCache;
 
-    public static void main(String[] args) throws FileNotFoundException, UnirestException {
+    public static void main(String[] args)
+            throws IOException, UnirestException, InterruptedException, ExecutionException {
 
+        // Load test and replay run against the in-memory database, with local stubs of FCM and of the plotter
+        boolean offline = args.length > 0 && (args[0].equals("loadtest") || args[0].equals("replay"));
         FCM_KEY = "key=" + System.getenv("FCM_KEY");
-        FCM_URL = System.getenv("FCM_URL");
-        DELETE_EXPIRED = Boolean.parseBoolean(System.getenv("DELETE_EXPIRED"));
+        FCM_URL = envString("FCM_URL", offline ? "http://localhost:" + PORT + "/stub/fcm" : null);
+        PLOTTER_URL = envString("PLOTTER_URL", offline ? "http://localhost:" + PORT + "/stub/plot"
+                : "http://graphplotter:5000/");
+        DELETE_EXPIRED = offline || Boolean.parseBoolean(System.getenv("DELETE_EXPIRED"));
+        PLOT_WORKERS = envInt("PLOT_WORKERS", 2);
+        PLOT_QUEUE_CAPACITY = envInt("PLOT_QUEUE_CAPACITY", 1000);
+        STATS_CACHE_CAPACITY = envInt("STATS_CACHE_CAPACITY", 10000);
+        GaussianDistribution.setCumulativeMode(
+                GaussianDistribution.CumulativeMode.valueOf(envString("GAUSSIAN_CDF_MODE", "EXACT")));
         String Database = System.getenv("FIREBASE_DB");
         String FirebaseKey = System.getenv("FIREBASE_KEY");
 
         gson = new Gson();
         jedis = new Jedis(REDIS_URL);
-        FirebaseOptions options = new FirebaseOptions.Builder()
-                .setServiceAccount(new FileInputStream(FirebaseKey))
-                .setDatabaseUrl(Database)
-                .build();
-        FirebaseApp.initializeApp(options);
-
-        FirebaseDatabase.getInstance().getReference().child("matches")
-                .addChildEventListener(new MatchListener());
+        leaderboard = new Leaderboard();
+        MemoryDatabase memoryDatabase = null;
+        Reference root;
+        if (offline) {
+            memoryDatabase = new MemoryDatabase(new LatencyModel(envInt("LOAD_DB_READ_MILLIS", 30),
+                    envInt("LOAD_DB_WRITE_MILLIS", 30), envInt("LOAD_DB_EVENT_MILLIS", 30),
+                    envInt("LOAD_DB_JITTER_MILLIS", 20)));
+            root = memoryDatabase.root();
+        } else {
+            FirebaseOptions options = new FirebaseOptions.Builder()
+                    .setServiceAccount(new FileInputStream(FirebaseKey))
+                    .setDatabaseUrl(Database)
+                    .build();
+            FirebaseApp.initializeApp(options);
+
+            if (args.length > 0 && args[0].equals("rebuild-stats")) {
+                // Batch mode: recompute every userStats node from the archive, then exit
+                new StatsRebuilder(FirebaseDatabase.getInstance().getReference()).run();
+                leaderboard.load(FirebaseDatabase.getInstance().getReference().child("userStats"));
+                QuoteHistogram.invalidateSnapshot(jedis);
+                System.exit(0);
+            }
+            if (args.length > 0 && args[0].equals("load-leaderboard")) {
+                // Batch mode: fill the leaderboard from the existing userStats, then exit
+                leaderboard.load(FirebaseDatabase.getInstance().getReference().child("userStats"));
+                QuoteHistogram.invalidateSnapshot(jedis);
+                System.exit(0);
+            }
+            root = new FirebaseReference(FirebaseDatabase.getInstance().getReference());
+
+            String recordFile = System.getenv("RECORD_EVENTS");
+            if (recordFile != null && !recordFile.isEmpty()) {
+                // Only the sections written by the application, the server derives the others
+                EventRecorder recorder = new EventRecorder(recordFile);
+                recorder.record(root, "players");
+                recorder.record(root, "matches");
+                recorder.record(root, "stats/buffer");
+            }
+        }
+        quoteHistogram = new QuoteHistogram();
+        quoteHistogram.start(leaderboard);
+
+        ratingCache = new RatingCache();
+        root.child("userStats").addChildListener(ratingCache);
+        teamBalancer = new TeamBalancer(ratingCache);
+        matchLocationIndex = new MatchLocationIndex();
+        matchQuoteIndex = new MatchQuoteIndex();
+
+        root.child("matches").addChildListener(new TimedChildListener("MatchListener",
+                new MatchListener(root, teamBalancer, matchLocationIndex, matchQuoteIndex)));
         System.out.println("Started matches listener");
 
-        FirebaseDatabase.getInstance().getReference()
-                .child("stats").child("buffer").addChildEventListener(new StatsBufferListener());
+        root.child("stats").child("buffer").addChildListener(new TimedChildListener("StatsBufferListener",
+                new StatsBufferListener(root, ratingCache, leaderboard, quoteHistogram)));
 
-        FirebaseDatabase.getInstance().getReference()
-                .child("userStats").addChildEventListener(new PlotMaster());
+        names = new NameDictionary(new Jedis(REDIS_URL));
+        names.load(root.child("players"));
+        root.child("players").addChildListener(new TimedChildListener("Namer", new Namer(names)));
 
-        FirebaseDatabase.getInstance().getReference()
-                .child("players").addChildEventListener(new Namer());
+        plotMaster = new PlotMaster(PLOTTER_URL, names, PLOT_WORKERS, PLOT_QUEUE_CAPACITY);
+        root.child("userStats").addChildListener(new TimedChildListener("PlotMaster", plotMaster));
+
+        statsSeriesCache = new StatsSeriesCache(root.child("userStats"), STATS_CACHE_CAPACITY);
+        root.child("userStats").addChildListener(statsSeriesCache);
 
         Unirest.setDefaultHeader("Content-Type", "application/json");
         Unirest.setDefaultHeader("Authorization", FCM_KEY);
 
+        matchmakingQueue = new MatchmakingQueue(root.child("matches"));
+        matchmakingQueue.start();
+
 
         threadPool(8);
-        port(9999);
+        port(PORT);
+        if (offline) {
+            stubRoutes();
+        }
 
-        post("/register", (req, res) -> {
+        post("/register", timed("/register", (req, res) -> {
             JsonObject body = gson.fromJson(req.body(), JsonObject.class);
             if (!validRegister(body)) {
                 res.status(400);
@@ -74,11 +204,11 @@ public class Main {
             String sciper = body.get("sciper").getAsString();
             String token = body.get("token").getAsString();
             logger.info("Registered player " + sciper + " with token " + token);
-            jedis.set(sciper, token);
+            REDIS_SET.time(() -> jedis.set(sciper, token));
             return "registered";
-        });
+        }));
 
-        post("/invite", (req, res) -> {
+        post("/invite", timed("/invite", (req, res) -> {
             JsonObject jBody = gson.fromJson(req.body(), JsonObject.class);
             if (!validInvite(jBody)) {
                 res.status(400);
@@ -98,21 +228,447 @@ public class Main {
             data.addProperty("body", "You have invited to join a match");
 
             JsonObject msg = new JsonObject();
-            msg.addProperty("to", jedis.get(sciper));
+            msg.addProperty("to", REDIS_GET.time(() -> jedis.get(sciper)));
             msg.add("data", data);
 
-            logger.info(Unirest.post(FCM_URL).body(gson.toJson(msg)).asString().getBody());
+            logger.info(sendFcm(gson.toJson(msg)));
 
             return "invited";
+        }));
+
+        get("/quality", (req, res) -> {
+            String[] players = parsePlayers(req.queryParams("players"));
+            if (players == null) {
+                res.status(400);
+                logger.error("bad request received, dropping");
+                return "bad request";
+            }
+            double[] means = new double[4];
+            double[] standardDeviations = new double[4];
+            ratingCache.fill(players, means, standardDeviations);
+
+            JsonObject quality = new JsonObject();
+            quality.addProperty("quality",
+                    MatchQualityCalculator.matchQuality(RatingContext.DEFAULT, means, standardDeviations));
+            quality.addProperty("winProbability",
+                    MatchQualityCalculator.winProbability(RatingContext.DEFAULT, means, standardDeviations));
+            res.type("application/json");
+            return gson.toJson(quality);
+        });
+
+        get("/balance", (req, res) -> {
+            String[] players = parsePlayers(req.queryParams("players"));
+            if (players == null) {
+                res.status(400);
+                logger.error("bad request received, dropping");
+                return "bad request";
+            }
+            TeamBalancer.Split split = teamBalancer.balance(players);
+
+            JsonObject balance = new JsonObject();
+            balance.add("Team0", gson.toJsonTree(split.getFirstTeam()));
+            balance.add("Team1", gson.toJsonTree(split.getSecondTeam()));
+            balance.addProperty("quality", split.getQuality());
+            balance.addProperty("winProbability", split.getWinProbability());
+            res.type("application/json");
+            return gson.toJson(balance);
+        });
+
+        get("/matches/nearby", (req, res) -> {
+            if (req.queryParams("lat") == null || req.queryParams("lng") == null) {
+                res.status(400);
+                logger.error("bad request received, dropping");
+                return "bad request";
+            }
+            try {
+                double lat = Double.parseDouble(req.queryParams("lat"));
+                double lng = Double.parseDouble(req.queryParams("lng"));
+                double radius = Math.min(parseOrDefault(req.queryParams("radius"), DEFAULT_NEARBY_RADIUS),
+                        MAX_NEARBY_RADIUS);
+                int k = (int) Math.min(parseOrDefault(req.queryParams("k"), DEFAULT_NEARBY_COUNT), MAX_NEARBY_COUNT);
+                String variant = req.queryParams("variant");
+                if (!Double.isFinite(lat) || !Double.isFinite(lng) || !Double.isFinite(radius)) {
+                    throw new IllegalArgumentException("Coordinates are not numbers");
+                }
+                if (Math.abs(lat) > 90 || Math.abs(lng) > 180 || radius <= 0 || k <= 0) {
+                    throw new IllegalArgumentException("Coordinates out of range");
+                }
+                res.type("application/json");
+                return gson.toJson(matchLocationIndex.nearest(lat, lng, radius,
+                        variant == null ? null : Match.GameVariant.valueOf(variant), k));
+            } catch (IllegalArgumentException e) {
+                res.status(400);
+                logger.error("bad request received, dropping");
+                return "bad request";
+            }
+        });
+
+        get("/matches", (req, res) -> {
+            try {
+                int minQuote = (int) parseOrDefault(req.queryParams("minQuote"), Integer.MIN_VALUE);
+                int maxQuote = (int) parseOrDefault(req.queryParams("maxQuote"), Integer.MAX_VALUE);
+                int limit = (int) Math.min(parseOrDefault(req.queryParams("limit"), DEFAULT_MATCH_LIST_LIMIT),
+                        MAX_MATCH_LIST_LIMIT);
+                String variant = req.queryParams("variant");
+                if (minQuote > maxQuote || limit <= 0) {
+                    throw new IllegalArgumentException("Empty range");
+                }
+                res.type("application/json");
+                return gson.toJson(matchQuoteIndex.range(minQuote, maxQuote,
+                        variant == null ? null : Match.GameVariant.valueOf(variant),
+                        // Private matches are only listed when asked for explicitly
+                        Boolean.parseBoolean(req.queryParams("private")), limit));
+            } catch (IllegalArgumentException e) {
+                res.status(400);
+                logger.error("bad request received, dropping");
+                return "bad request";
+            }
         });
+
+        get("/leaderboard", (req, res) -> {
+            try {
+                String variant = req.queryParams("variant");
+                int page = (int) parseOrDefault(req.queryParams("page"), 0);
+                int size = (int) Math.min(parseOrDefault(req.queryParams("size"), DEFAULT_LEADERBOARD_PAGE_SIZE),
+                        MAX_LEADERBOARD_PAGE_SIZE);
+                if (page < 0 || size <= 0) {
+                    throw new IllegalArgumentException("Invalid page");
+                }
+                res.type("application/json");
+                return gson.toJson(leaderboard.page(variant == null ? null : Match.GameVariant.valueOf(variant),
+                        page, size));
+            } catch (IllegalArgumentException e) {
+                res.status(400);
+                logger.error("bad request received, dropping");
+                return "bad request";
+            }
+        });
+
+        get("/leaderboard/rank/:sciper", (req, res) -> {
+            Match.GameVariant variant;
+            try {
+                variant = req.queryParams("variant") == null ? null : Match.GameVariant.valueOf(req.queryParams("variant"));
+            } catch (IllegalArgumentException e) {
+                res.status(400);
+                logger.error("bad request received, dropping");
+                return "bad request";
+            }
+            Leaderboard.Standing standing = leaderboard.standing(req.params(":sciper"), variant);
+            if (standing == null) {
+                res.status(404);
+                return "not ranked";
+            }
+            JsonObject rank = gson.toJsonTree(standing).getAsJsonObject();
+            rank.addProperty("total", leaderboard.size(variant));
+            res.type("application/json");
+            return gson.toJson(rank);
+        });
+
+        get("/percentile/:sciper", (req, res) -> {
+            Integer quote = ratingCache.getQuote(req.params(":sciper"));
+            if (quote == null) {
+                res.status(404);
+                return "not ranked";
+            }
+            res.type("application/json");
+            return gson.toJson(quoteHistogram.placement(quote));
+        });
+
+        get("/stats/:sciper/series", (req, res) -> serveStats(req, res, true));
+
+        get("/stats/:sciper/bars", (req, res) -> serveStats(req, res, false));
+
+        get("/metrics", (req, res) -> {
+            res.type("text/plain; version=0.0.4");
+            return Metrics.scrape();
+        });
+
+        get("/debug/traces", (req, res) -> {
+            res.type("application/json");
+            return gson.toJson(Trace.slowest());
+        });
+
+        get("/plots/stats", (req, res) -> {
+            JsonObject stats = new JsonObject();
+            stats.addProperty("coalescedJobs", plotMaster.coalescedJobs());
+            stats.addProperty("sentJobs", plotMaster.sentJobs());
+            stats.addProperty("sentGraphs", plotMaster.sentGraphs());
+            stats.addProperty("skippedGraphs", plotMaster.skippedGraphs());
+            stats.addProperty("queuedJobs", plotMaster.queuedJobs());
+            stats.addProperty("shedJobs", plotMaster.shedJobs());
+            stats.addProperty("replacedJobs", plotMaster.replacedJobs());
+            stats.addProperty("renderedJobs", plotMaster.renderedJobs());
+            stats.addProperty("averageRenderMillis", plotMaster.averageRenderMillis());
+            stats.addProperty("maxRenderMillis", plotMaster.maxRenderMillis());
+            stats.addProperty("averageQueueMillis", plotMaster.averageQueueMillis());
+            res.type("application/json");
+            return gson.toJson(stats);
+        });
+
+        post("/queue", (req, res) -> {
+            JsonObject body = gson.fromJson(req.body(), JsonObject.class);
+            Match.GameVariant variant;
+            String sciper;
+            int minQuote;
+            int maxQuote;
+            GPSPoint location;
+            double maxDistance;
+            try {
+                if (body == null || !validQueue(body)) {
+                    throw new IllegalArgumentException("Invalid queue request");
+                }
+                variant = Match.GameVariant.valueOf(body.get("variant").getAsString());
+                sciper = body.get("sciper").getAsString();
+                minQuote = body.get("minQuote").getAsInt();
+                maxQuote = body.get("maxQuote").getAsInt();
+                location = body.has("latitude")
+                        ? new GPSPoint(body.get("latitude").getAsDouble(), body.get("longitude").getAsDouble())
+                        : null;
+                maxDistance = body.has("maxDistance") ? body.get("maxDistance").getAsDouble() : 0;
+                if (maxDistance < 0) {
+                    throw new IllegalArgumentException("Negative maximum distance");
+                }
+            } catch (IllegalArgumentException | IllegalStateException | ClassCastException
+                    | UnsupportedOperationException e) {
+                res.status(400);
+                logger.error("bad request received, dropping");
+                return "bad request";
+            }
+
+            // The ticket carries the player as stored in the database, with his current quote
+            Player player = root.child("players").child(sciper)
+                    .read(PLAYER_READ_TIMEOUT_SECONDS, TimeUnit.SECONDS).getValue(Player.class);
+            if (player == null) {
+                res.status(404);
+                return "unknown player";
+            }
+            matchmakingQueue.enqueue(new MatchmakingQueue.Ticket(player, variant, minQuote, maxQuote,
+                    location, maxDistance));
+            return "queued";
+        });
+
+        delete("/queue/:sciper", (req, res) -> matchmakingQueue.dequeue(req.params(":sciper")) ? "dequeued" : "not queued");
+
+        get("/queue/stats", (req, res) -> {
+            res.type("application/json");
+            return gson.toJson(matchmakingQueue.statistics());
+        });
+
+        if (offline) {
+            runOffline(args, memoryDatabase, root);
+        }
+    }
+
+    /**
+     * Serves the stubs of FCM and of the plotter used by the offline runs, answering after
+     * LOAD_STUB_MILLIS to stand for the network.
+     */
+    private static void stubRoutes() {
+        long delay = envInt("LOAD_STUB_MILLIS", 20);
+        post("/stub/fcm", (req, res) -> {
+            Thread.sleep(delay);
+            res.type("application/json");
+            return "{\"success\":1,\"failure\":0}";
+        });
+        post("/stub/plot", (req, res) -> {
+            Thread.sleep(delay);
+            return "plotted";
+        });
+    }
+
+    /**
+     * Runs the load test or the replay asked for on the command line against the in-memory
+     * database, waits for the backlog to be processed, prints the report and exits.
+     */
+    private static void runOffline(String[] args, MemoryDatabase database, Reference root)
+            throws IOException, InterruptedException {
+        awaitInitialization();
+        LoadReport report = new LoadReport();
+        report.backlog("memory database callbacks", database::pendingCallbacks);
+        report.backlog("plot jobs", plotMaster::queuedJobs);
+        report.backlog("matchmaking players", matchmakingQueue::size);
+        report.start();
+
+        if (args[0].equals("loadtest")) {
+            WorkloadGenerator generator = new WorkloadGenerator(root, "http://localhost:" + PORT + "/register",
+                    new WorkloadGenerator.Settings(envInt("LOAD_PLAYERS", 400),
+                            envDouble("LOAD_REGISTRATIONS_PER_SECOND", 50),
+                            envDouble("LOAD_MATCHES_PER_SECOND", 5),
+                            envDouble("LOAD_JOIN_SECONDS", 1),
+                            envDouble("LOAD_PLAY_SECONDS", 5),
+                            envDouble("LOAD_LEAVE_PROBABILITY", 0.1),
+                            envDouble("LOAD_ABANDON_PROBABILITY", 0.1),
+                            envInt("LOAD_ABANDONED_LIFETIME_SECONDS", 20)));
+            generator.start();
+            Thread.sleep(TimeUnit.SECONDS.toMillis(envInt("LOAD_DURATION_SECONDS", 60)));
+            generator.stop();
+            if (!generator.awaitMatches(DRAIN_SECONDS, TimeUnit.SECONDS)) {
+                logger.warn("Matches still in progress after " + DRAIN_SECONDS + " s");
+            }
+            logger.info(generator.summary());
+        } else {
+            if (args.length < 2) {
+                logger.error("usage: replay <events file> [speed]");
+                System.exit(1);
+            }
+            new EventReplayer(root, args[1], args.length > 2 ? Double.parseDouble(args[2]) : 1).run();
+        }
+
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(DRAIN_SECONDS);
+        while ((!database.awaitIdle(1, TimeUnit.SECONDS) || plotMaster.queuedJobs() > 0)
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+        logger.info("Load report:\n" + report.finish());
+        System.exit(0);
+    }
+
+    /**
+     * Sends a message to FCM, recording the duration and the outcome of the request.
+     *
+     * @param body the message in JSON
+     * @return the body of the response of FCM
+     */
+    static String sendFcm(String body) throws UnirestException {
+        long start = System.nanoTime();
+        String outcome = "error";
+        try {
+            HttpResponse<String> res = Unirest.post(FCM_URL).body(body).asString();
+            outcome = res.getStatus() / 100 + "xx";
+            return res.getBody();
+        } finally {
+            FCM_SEND_DURATION.recordNanos(System.nanoTime() - start);
+            FCM_SENDS.computeIfAbsent(outcome, o -> Metrics.counter("fcm_sends_total", "Requests to FCM by outcome",
+                    "outcome", o)).inc();
+        }
+    }
+
+    /**
+     * Wraps a route to record its latency and the status of its responses.
+     *
+     * @param path  the path of the route, used as label
+     * @param route the route to time
+     * @return the timed route
+     */
+    private static Route timed(String path, Route route) {
+        LatencyHistogram latency = Metrics.histogram("http_request_duration_seconds",
+                "Time spent handling the requests", "route", path);
+        // Counters by status, so that the requests do not build their labels
+        ConcurrentMap<Integer, Counter> requests = new ConcurrentHashMap<>();
+        return (req, res) -> {
+            long start = System.nanoTime();
+            int status = 500;
+            try {
+                Object body = route.handle(req, res);
+                // The status getter of the response given to the routes is not delegated in Spark 2.5
+                status = res.raw().getStatus();
+                return body;
+            } finally {
+                latency.recordNanos(System.nanoTime() - start);
+                requests.computeIfAbsent(status, s -> Metrics.counter("http_requests_total",
+                        "Requests handled by route and status", "route", path, "status", Integer.toString(s))).inc();
+            }
+        };
+    }
+
+    /**
+     * Answers a request for the series or the bars of a player from the stats cache, in JSON or,
+     * with format=binary, in the varint encoding of {@link StatsSeriesCache}.
+     */
+    private static Object serveStats(Request req, Response res, boolean series) throws InterruptedException {
+        String format = req.queryParams("format");
+        if (format != null && !format.equals("json") && !format.equals("binary")) {
+            res.status(400);
+            logger.error("bad request received, dropping");
+            return "bad request";
+        }
+        StatsSeriesCache.Encoded encoded = statsSeriesCache.get(req.params(":sciper"));
+        if (encoded == null) {
+            res.status(404);
+            return "no stats";
+        }
+        boolean binary = "binary".equals(format);
+        String etag = series ? encoded.seriesEtag(binary) : encoded.barsEtag(binary);
+        res.header("ETag", etag);
+        res.header("Cache-Control", "no-cache");
+        if (StatsSeriesCache.matches(req.headers("If-None-Match"), etag)) {
+            res.status(304);
+            return "";
+        }
+        if (binary) {
+            res.type("application/octet-stream");
+            return series ? encoded.seriesBinary() : encoded.barsBinary();
+        }
+        res.type("application/json");
+        return series ? encoded.seriesJson() : encoded.barsJson();
+    }
+
+    private static boolean validQueue(JsonObject data) {
+        if (!(data.has("sciper") && data.has("variant") && data.has("minQuote") && data.has("maxQuote"))) {
+            return false;
+        }
+        int minQuote = data.get("minQuote").getAsInt();
+        int maxQuote = data.get("maxQuote").getAsInt();
+        boolean located = data.has("latitude") && data.has("longitude") && data.has("maxDistance");
+        boolean unlocated = !data.has("latitude") && !data.has("longitude");
+        return minQuote <= maxQuote
+                && maxQuote - minQuote <= MAX_QUEUE_QUOTE_WINDOW
+                && (located || unlocated);
+    }
+
+    private static int envInt(String name, int defaultValue) {
+        String value = System.getenv(name);
+        return value == null || value.isEmpty() ? defaultValue : Integer.parseInt(value);
+    }
+
+    private static double envDouble(String name, double defaultValue) {
+        String value = System.getenv(name);
+        return value == null || value.isEmpty() ? defaultValue : Double.parseDouble(value);
+    }
+
+    private static String envString(String name, String defaultValue) {
+        String value = System.getenv(name);
+        return value == null || value.isEmpty() ? defaultValue : value;
+    }
+
+    private static double parseOrDefault(String value, double defaultValue) {
+        return value == null ? defaultValue : Double.parseDouble(value);
+    }
+
+    /**
+     * Parses a comma separated lineup of four distinct scipers, the first two forming a team.
+     *
+     * @param players the value of the players query parameter
+     * @return the scipers, or null if the lineup is invalid
+     */
+    private static String[] parsePlayers(String players) {
+        if (players == null) {
+            return null;
+        }
+        String[] scipers = players.split(",");
+        if (scipers.length != 4) {
+            return null;
+        }
+        for (int i = 0; i < 4; ++i) {
+            scipers[i] = scipers[i].trim();
+            if (scipers[i].isEmpty()) {
+                return null;
+            }
+            for (int j = 0; j < i; ++j) {
+                if (scipers[i].equals(scipers[j])) {
+                    return null;
+                }
+            }
+        }
+        return scipers;
     }
 
     private static boolean validInvite(JsonObject data) {
         return data.has("sciper") &&
                 data.has("matchId") &&
                 data.has("by") &&
-                jedis.exists(data.get("by").getAsString()) &&
-                jedis.exists(data.get("sciper").getAsString());
+                REDIS_EXISTS.time(() -> jedis.exists(data.get("by").getAsString())) &&
+                REDIS_EXISTS.time(() -> jedis.exists(data.get("sciper").getAsString()));
     }
 
     private static boolean validRegister(JsonObject data) {
@@ -1,8 +1,8 @@
 package server;
 
-import com.google.firebase.database.DatabaseReference;
-import com.google.firebase.database.FirebaseDatabase;
-import model.Match;
+import db.Reference;
+import tools.metrics.LatencyHistogram;
+import tools.metrics.Metrics;
 
 import java.util.TimerTask;
 
@@ -10,16 +10,18 @@ import java.util.TimerTask;
  * Created by vinz on 10/31/16.
  */
 public class MatchExpirer extends TimerTask{
+    private static final LatencyHistogram LAG = Metrics.timerLag("matchExpirer");
+    private final Reference root;
     private final String matchId;
 
-    MatchExpirer(String matchId) {
+    MatchExpirer(Reference root, String matchId) {
+        this.root = root;
         this.matchId = matchId;
     }
 
     public void run() {
-        DatabaseReference ref = FirebaseDatabase.getInstance().getReference();
-
-        ref.child("matches").child(matchId).removeValue();
-        ref.child("pendingMatches").child(matchId).removeValue();
+        LAG.recordMillis(System.currentTimeMillis() - scheduledExecutionTime());
+        root.child("matches").child(matchId).removeValue();
+        root.child("pendingMatches").child(matchId).removeValue();
     }
 }
@@ -1,28 +1,41 @@
 package server;
 
-import com.google.firebase.database.ChildEventListener;
-import com.google.firebase.database.DataSnapshot;
-import com.google.firebase.database.DatabaseError;
 import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 import com.mashape.unirest.http.Unirest;
 import com.mashape.unirest.http.exceptions.UnirestException;
+import db.ChildListener;
+import db.Reference;
+import db.Snapshot;
 import model.Match;
-import model.Player;
 import redis.clients.jedis.Jedis;
+import stats.TeamBalancer;
+import tools.metrics.LatencyHistogram;
+import tools.metrics.Metrics;
+import tools.metrics.Trace;
 
-import java.util.*;
-import java.util.stream.Collectors;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Timer;
 
-class MatchListener implements ChildEventListener {
-    private final Map<String, Match> matches;
+class MatchListener implements ChildListener {
+    private static final LatencyHistogram REDIS_GET = Metrics.redis("get");
+
+    private final Reference root;
+    private final Map<String, LiveMatch> matches;
     private final Map<String, Boolean> shoudNotifyfull;
     private final Timer timer;
     private final Gson gson;
     private final Jedis jedis;
+    private final TeamBalancer teamBalancer;
+    private final MatchLocationIndex locationIndex;
+    private final MatchQuoteIndex quoteIndex;
 
-    MatchListener() {
+    MatchListener(Reference root, TeamBalancer teamBalancer, MatchLocationIndex locationIndex,
+                  MatchQuoteIndex quoteIndex) {
+        this.root = root;
         Unirest.setDefaultHeader("Content-Type", "application/json");
         Unirest.setDefaultHeader("Authorization", Main.FCM_KEY);
         this.matches = new HashMap<>();
@@ -30,48 +43,62 @@ class MatchListener implements ChildEventListener {
         this.gson = new Gson();
         this.jedis = new Jedis(Main.REDIS_URL);
         this.shoudNotifyfull = new HashMap<>();
+        this.teamBalancer = teamBalancer;
+        this.locationIndex = locationIndex;
+        this.quoteIndex = quoteIndex;
     }
 
-    public void onChildAdded(DataSnapshot dataSnapshot, String s) {
+    public void onChildAdded(Snapshot dataSnapshot) {
         String id = dataSnapshot.getKey();
+        Trace trace = Trace.start("matchAdded", id);
         Match m = dataSnapshot.getValue(Match.class);
-        matches.put(id, m);
-
-        Date expirationDate = new Date(m.getTime());
-        timer.schedule(new ExpirationNotifier(m), expirationDate);
+        LiveMatch match = LiveMatch.of(id, m);
+        trace.mark("decode");
+        matches.put(id, match);
+        locationIndex.update(m);
+        quoteIndex.update(m);
+        trace.mark("index");
+
+        Date expirationDate = new Date(match.getTime());
+        timer.schedule(new ExpirationNotifier(match), expirationDate);
         if (Main.DELETE_EXPIRED) {
-            timer.schedule(new MatchExpirer(m.getMatchID()), expirationDate);
+            timer.schedule(new MatchExpirer(root, id), expirationDate);
         }
+        trace.mark("schedule").finish();
     }
 
-    public void onChildChanged(DataSnapshot dataSnapshot, String s) {
+    public void onChildChanged(Snapshot dataSnapshot) {
         String matchId = dataSnapshot.getKey();
-        Match newMatch = dataSnapshot.getValue(Match.class);
-        Match oldMatch = matches.get(matchId);
-        matches.put(matchId, newMatch);
-
-        List<Player> newPlayers = newMatch.getPlayers();
-        List<Player> oldPlayers = oldMatch.getPlayers();
-
-        if (newPlayers.size() == newMatch.getMaxPlayerNumber() && shoudNotifyfull.getOrDefault(matchId, true)) {
-            notifyFull(matchId, newPlayers);
+        Trace trace = Trace.start("matchChanged", matchId);
+        Match m = dataSnapshot.getValue(Match.class);
+        LiveMatch newMatch = LiveMatch.of(matchId, m);
+        trace.mark("decode");
+        LiveMatch oldMatch = matches.put(matchId, newMatch);
+        locationIndex.update(m);
+        quoteIndex.update(m);
+        trace.mark("index");
+
+        int newCount = newMatch.getPlayerCount();
+        int oldCount = oldMatch == null ? newCount : oldMatch.getPlayerCount();
+
+        if (newMatch.isFull() && shoudNotifyfull.getOrDefault(matchId, true)) {
+            notifyFull(matchId, newMatch, trace);
             shoudNotifyfull.put(matchId, false);
-        } else if (newPlayers.size() == oldPlayers.size() + 1) {
-            Player lastArrived = newPlayers.get(oldPlayers.size());
-            notifyJoinMatch(lastArrived.getID().toString(), oldMatch.getMatchID(), oldPlayers);
-        } else if (newPlayers.size() + 1 == oldPlayers.size()) {
-            List<String> oldScipers = collectScipers(oldPlayers);
-            List<String> newScipers = collectScipers(newPlayers);
-            oldScipers.removeAll(newScipers);
-            notifyLeaveMatch(oldScipers.get(0), matchId, newPlayers);
+        } else if (newCount == oldCount + 1) {
+            long lastArrived = newMatch.getPlayer(oldCount);
+            notifyJoinMatch(Long.toString(lastArrived), matchId, oldMatch, trace);
+        } else if (newCount + 1 == oldCount) {
+            for (int i = 0; i < oldCount; ++i) {
+                if (newMatch.indexOf(oldMatch.getPlayer(i)) < 0) {
+                    notifyLeaveMatch(Long.toString(oldMatch.getPlayer(i)), matchId, newMatch, trace);
+                    break;
+                }
+            }
         }
+        trace.finish();
     }
 
-    private List<String> collectScipers(List<Player> players) {
-        return players.stream().map(p -> p.getID().toString()).collect(Collectors.toList());
-    }
-
-    private void notifyLeaveMatch(String traitor, String matchId, List<Player> remaining) {
+    private void notifyLeaveMatch(String traitor, String matchId, LiveMatch remaining, Trace trace) {
         JsonObject data = new JsonObject();
         data.addProperty("type", "playerleft");
         data.addProperty("matchId", matchId);
@@ -82,15 +109,17 @@ class MatchListener implements ChildEventListener {
         JsonObject msg = new JsonObject();
         msg.add("data", data);
         msg.add("registration_ids", getIds(remaining));
+        trace.mark("redis");
         Main.logger.info("Player " + traitor + " left match " + matchId);
         try {
-            Main.logger.info(Unirest.post(Main.FCM_URL).body(gson.toJson(msg)).asString().getBody());
+            Main.logger.info(Main.sendFcm(gson.toJson(msg)));
         } catch (UnirestException e) {
             e.printStackTrace();
         }
+        trace.mark("fcm");
     }
 
-    private void notifyJoinMatch(String sciper, String matchID, List<Player> oldPlayers) {
+    private void notifyJoinMatch(String sciper, String matchID, LiveMatch oldPlayers, Trace trace) {
         JsonObject data = new JsonObject();
         data.addProperty("type", "playerjoined");
         data.addProperty("matchId", matchID);
@@ -101,49 +130,60 @@ class MatchListener implements ChildEventListener {
         JsonObject msg = new JsonObject();
         msg.add("data", data);
         msg.add("registration_ids", getIds(oldPlayers));
+        trace.mark("redis");
         Main.logger.info("Player " + sciper + " has joined match " + matchID);
         try {
-            Main.logger.info(Unirest.post(Main.FCM_URL).body(gson.toJson(msg)).asString().getBody());
+            Main.logger.info(Main.sendFcm(gson.toJson(msg)));
         } catch (UnirestException e) {
             e.printStackTrace();
         }
+        trace.mark("fcm");
     }
 
-    private void notifyFull(String id, List<Player> players) {
+    private void notifyFull(String id, LiveMatch players, Trace trace) {
         JsonObject data = new JsonObject();
         data.addProperty("type", "matchfull");
         data.addProperty("matchId", id);
         data.addProperty("title", "Jass@EPFL");
         data.addProperty("body", "The match you joined is full!");
+        if (players.getPlayerCount() == 4) {
+            String[] scipers = new String[4];
+            for (int i = 0; i < scipers.length; ++i) {
+                scipers[i] = Long.toString(players.getPlayer(i));
+            }
+            TeamBalancer.Split split = teamBalancer.balance(scipers);
+            data.addProperty("suggestedTeam0", String.join(",", split.getFirstTeam()));
+            data.addProperty("suggestedTeam1", String.join(",", split.getSecondTeam()));
+            data.addProperty("suggestedQuality", Double.toString(split.getQuality()));
+            trace.mark("balance");
+        }
 
         JsonObject msg = new JsonObject();
         msg.add("registration_ids", getIds(players));
+        trace.mark("redis");
         msg.add("data", data);
         Main.logger.info("Match " + id + " is full");
         try {
-            Main.logger.info(Unirest.post(Main.FCM_URL).body(gson.toJson(msg)).asString().getBody());
+            Main.logger.info(Main.sendFcm(gson.toJson(msg)));
         } catch (UnirestException e) {
             e.printStackTrace();
         }
+        trace.mark("fcm");
     }
 
-    private JsonArray getIds(List<Player> players) {
+    private JsonArray getIds(LiveMatch players) {
         JsonArray res = new JsonArray();
-        for (Player p : players) {
-            res.add(jedis.get(p.getID().toString()));
+        for (int i = 0; i < players.getPlayerCount(); ++i) {
+            String sciper = Long.toString(players.getPlayer(i));
+            res.add(REDIS_GET.time(() -> jedis.get(sciper)));
         }
         return res;
     }
 
-    public void onChildRemoved(DataSnapshot dataSnapshot) {
-
-    }
-
-    public void onChildMoved(DataSnapshot dataSnapshot, String s) {
-
-    }
-
-    public void onCancelled(DatabaseError databaseError) {
-
+    public void onChildRemoved(Snapshot dataSnapshot) {
+        matches.remove(dataSnapshot.getKey());
+        shoudNotifyfull.remove(dataSnapshot.getKey());
+        locationIndex.remove(dataSnapshot.getKey());
+        quoteIndex.remove(dataSnapshot.getKey());
     }
 }
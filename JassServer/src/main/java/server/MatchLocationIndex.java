@@ -0,0 +1,208 @@
+package server;
+
+import model.GPSPoint;
+import model.Match;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Spatial index of the open matches, the pending public matches that still have a free seat.
+ * <p>
+ * The matches are bucketed in a grid of cells of {@link #CELL_DEGREES} degrees of latitude and
+ * longitude. A nearest neighbours query visits the rings of cells around the cell of the query
+ * point, from the inside out, and stops as soon as no unvisited cell can hold a match closer than
+ * the ones already found, so it only looks at the matches of the neighbourhood. The index is kept
+ * up to date by the {@link MatchListener}.
+ */
+class MatchLocationIndex {
+    // About 5.5km of latitude, the typical radius of a query
+    private static final double CELL_DEGREES = 0.05;
+    private static final double EARTH_RADIUS = 6371000;
+    private static final double CELL_HEIGHT = Math.toRadians(CELL_DEGREES) * EARTH_RADIUS;
+    private static final int COLUMNS = (int) Math.round(360 / CELL_DEGREES);
+
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final Map<Long, List<Entry>> cells = new HashMap<>();
+
+    /**
+     * Indexes the given match if it is open, and drops its previous position otherwise.
+     *
+     * @param match the new state of the match
+     */
+    synchronized void update(Match match) {
+        remove(match.getMatchID());
+        if (isOpen(match)) {
+            GPSPoint location = match.getLocation();
+            Entry entry = new Entry(match.getMatchID(), location.getLatitude(), location.getLongitude(),
+                    match.getGameVariant());
+            entries.put(entry.matchId, entry);
+            cells.computeIfAbsent(entry.cell, k -> new ArrayList<>()).add(entry);
+        }
+    }
+
+    /**
+     * Removes the given match from the index.
+     *
+     * @param matchId the unique identifier of the match
+     */
+    synchronized void remove(String matchId) {
+        Entry entry = entries.remove(matchId);
+        if (entry != null) {
+            List<Entry> cell = cells.get(entry.cell);
+            // Order inside a cell does not matter: swap with the last entry to remove in O(1)
+            int i = cell.indexOf(entry);
+            cell.set(i, cell.get(cell.size() - 1));
+            cell.remove(cell.size() - 1);
+            if (cell.isEmpty()) {
+                cells.remove(entry.cell);
+            }
+        }
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Finds the open matches closest to the given point.
+     *
+     * @param latitude  the latitude of the point
+     * @param longitude the longitude of the point
+     * @param radius    the maximum distance in meters
+     * @param variant   the variant the matches must have, null for any
+     * @param k         the maximum number of matches returned
+     * @return the matches, closest first
+     * @throws IllegalArgumentException if the point or the radius is not finite or out of range,
+     *                                  since the rings would then be scanned around the whole globe
+     */
+    synchronized List<Nearby> nearest(double latitude, double longitude, double radius,
+                                      Match.GameVariant variant, int k) {
+        if (!Double.isFinite(latitude) || !Double.isFinite(longitude) || !Double.isFinite(radius)
+                || Math.abs(latitude) > 90 || Math.abs(longitude) > 180 || radius <= 0 || k <= 0) {
+            throw new IllegalArgumentException("Invalid nearest neighbours query");
+        }
+        // Farthest match kept on top so that it is the one replaced by a closer match
+        PriorityQueue<Nearby> best = new PriorityQueue<>(k, (a, b) -> Double.compare(b.distance, a.distance));
+        int row = cellOf(latitude);
+        int column = cellOf(longitude);
+
+        for (int ring = 0; ; ++ring) {
+            for (int r = row - ring; r <= row + ring; ++r) {
+                boolean edgeRow = r == row - ring || r == row + ring;
+                // Inner rows only contribute their two border cells to the ring
+                int step = edgeRow || ring == 0 ? 1 : 2 * ring;
+                for (int c = column - ring; c <= column + ring; c += step) {
+                    List<Entry> cell = cells.get(key(r, c));
+                    if (cell != null) {
+                        collect(cell, latitude, longitude, radius, variant, k, best);
+                    }
+                }
+            }
+
+            // Every unvisited cell is at least ring full cells away from the query point
+            double covered = ring * cellWidth(latitude, ring);
+            boolean complete = best.size() == k && best.peek().distance <= covered;
+            if (complete || covered > radius || ring * 2 >= COLUMNS) {
+                break;
+            }
+        }
+
+        List<Nearby> result = new ArrayList<>(best);
+        result.sort((a, b) -> Double.compare(a.distance, b.distance));
+        return result;
+    }
+
+    private static void collect(List<Entry> cell, double latitude, double longitude, double radius,
+                                Match.GameVariant variant, int k, PriorityQueue<Nearby> best) {
+        for (Entry entry : cell) {
+            if (variant != null && entry.variant != variant) {
+                continue;
+            }
+            double distance = distance(latitude, longitude, entry.latitude, entry.longitude);
+            if (distance > radius) {
+                continue;
+            }
+            if (best.size() < k) {
+                best.add(new Nearby(entry.matchId, distance));
+            } else if (distance < best.peek().distance) {
+                best.poll();
+                best.add(new Nearby(entry.matchId, distance));
+            }
+        }
+    }
+
+    private static boolean isOpen(Match match) {
+        return match.getMatchStatus() == Match.MatchStatus.PENDING
+                && !match.isPrivateMatch()
+                && match.getLocation() != null
+                && match.getPlayers().size() < match.getMaxPlayerNumber();
+    }
+
+    /**
+     * Computes the smallest dimension in meters of the cells of the given ring, which shrink in
+     * longitude away from the equator.
+     */
+    private static double cellWidth(double latitude, int ring) {
+        double farthestLatitude = Math.min(Math.abs(latitude) + (ring + 1) * CELL_DEGREES, 89);
+        return Math.min(CELL_HEIGHT, CELL_HEIGHT * Math.cos(Math.toRadians(farthestLatitude)));
+    }
+
+    private static int cellOf(double degrees) {
+        return (int) Math.floor(degrees / CELL_DEGREES);
+    }
+
+    /**
+     * Packs the coordinates of a cell in a long, the columns wrapping around the antimeridian.
+     */
+    private static long key(int row, int column) {
+        return ((long) row << 32) | Math.floorMod(column, COLUMNS);
+    }
+
+    /**
+     * Haversine distance between two points in meters.
+     */
+    static double distance(double latitude1, double longitude1, double latitude2, double longitude2) {
+        double dLatitude = Math.toRadians(latitude2 - latitude1);
+        double dLongitude = Math.toRadians(longitude2 - longitude1);
+        double a = Math.sin(dLatitude / 2) * Math.sin(dLatitude / 2)
+                + Math.cos(Math.toRadians(latitude1)) * Math.cos(Math.toRadians(latitude2))
+                * Math.sin(dLongitude / 2) * Math.sin(dLongitude / 2);
+        return 2 * EARTH_RADIUS * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    /**
+     * An open match and its position.
+     */
+    private static final class Entry {
+        private final String matchId;
+        private final double latitude;
+        private final double longitude;
+        private final Match.GameVariant variant;
+        private final long cell;
+
+        Entry(String matchId, double latitude, double longitude, Match.GameVariant variant) {
+            this.matchId = matchId;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.variant = variant;
+            this.cell = key(cellOf(latitude), cellOf(longitude));
+        }
+    }
+
+    /**
+     * A match found by a query and its distance to the query point.
+     */
+    static final class Nearby {
+        private final String matchId;
+        private final double distance;
+
+        Nearby(String matchId, double distance) {
+            this.matchId = matchId;
+            this.distance = distance;
+        }
+    }
+}
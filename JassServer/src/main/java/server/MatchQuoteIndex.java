@@ -0,0 +1,121 @@
+package server;
+
+import model.Match;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Index of the pending matches by quote.
+ * <p>
+ * There is one sorted map from quote to match ids per variant and visibility, so that a query
+ * restricted to a variant and a visibility is a single range lookup in O(log n + k), and an
+ * unrestricted query merges at most one range per variant and visibility. The index is kept up
+ * to date by the {@link MatchListener}.
+ */
+class MatchQuoteIndex {
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final Map<Match.GameVariant, List<NavigableMap<Integer, Set<String>>>> trees = new HashMap<>();
+
+    /**
+     * Indexes the given match if it is pending, and drops its previous quote otherwise.
+     *
+     * @param match the new state of the match
+     */
+    synchronized void update(Match match) {
+        remove(match.getMatchID());
+        if (match.getMatchStatus() == Match.MatchStatus.PENDING) {
+            Entry entry = new Entry(match.getMatchID(), match.getQuote(), match.getGameVariant(), match.isPrivateMatch());
+            entries.put(entry.matchId, entry);
+            tree(entry.variant, entry.privateMatch)
+                    .computeIfAbsent(entry.quote, q -> new LinkedHashSet<>())
+                    .add(entry.matchId);
+        }
+    }
+
+    /**
+     * Removes the given match from the index.
+     *
+     * @param matchId the unique identifier of the match
+     */
+    synchronized void remove(String matchId) {
+        Entry entry = entries.remove(matchId);
+        if (entry != null) {
+            NavigableMap<Integer, Set<String>> tree = tree(entry.variant, entry.privateMatch);
+            Set<String> ids = tree.get(entry.quote);
+            ids.remove(matchId);
+            if (ids.isEmpty()) {
+                tree.remove(entry.quote);
+            }
+        }
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Finds the pending matches whose quote lies in the given range.
+     *
+     * @param minQuote     the lowest quote, inclusive
+     * @param maxQuote     the highest quote, inclusive
+     * @param variant      the variant of the matches, null for any
+     * @param privateMatch the visibility of the matches, null for any
+     * @param limit        the maximum number of matches returned
+     * @return the matches, by increasing quote
+     */
+    synchronized List<Entry> range(int minQuote, int maxQuote, Match.GameVariant variant, Boolean privateMatch,
+                                   int limit) {
+        List<Entry> result = new ArrayList<>();
+        for (Match.GameVariant v : variant == null ? Match.GameVariant.values() : new Match.GameVariant[]{variant}) {
+            for (boolean p : privateMatch == null ? new boolean[]{false, true} : new boolean[]{privateMatch}) {
+                collect(tree(v, p).subMap(minQuote, true, maxQuote, true), limit, result);
+            }
+        }
+        // Each range is sorted, only the merge of several ranges needs to be ordered again
+        result.sort((a, b) -> Integer.compare(a.quote, b.quote));
+        return result.size() > limit ? new ArrayList<>(result.subList(0, limit)) : result;
+    }
+
+    private void collect(NavigableMap<Integer, Set<String>> range, int limit, List<Entry> result) {
+        int collected = 0;
+        for (Set<String> ids : range.values()) {
+            for (String id : ids) {
+                if (collected++ == limit) {
+                    return;
+                }
+                result.add(entries.get(id));
+            }
+        }
+    }
+
+    private NavigableMap<Integer, Set<String>> tree(Match.GameVariant variant, boolean privateMatch) {
+        List<NavigableMap<Integer, Set<String>>> byVisibility = trees.computeIfAbsent(variant,
+                v -> Arrays.asList(new TreeMap<>(), new TreeMap<>()));
+        return byVisibility.get(privateMatch ? 1 : 0);
+    }
+
+    /**
+     * A pending match as returned by the queries.
+     */
+    static final class Entry {
+        private final String matchId;
+        private final int quote;
+        private final Match.GameVariant variant;
+        private final boolean privateMatch;
+
+        Entry(String matchId, int quote, Match.GameVariant variant, boolean privateMatch) {
+            this.matchId = matchId;
+            this.quote = quote;
+            this.variant = variant;
+            this.privateMatch = privateMatch;
+        }
+    }
+}
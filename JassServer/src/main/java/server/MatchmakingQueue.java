@@ -0,0 +1,346 @@
+package server;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.mashape.unirest.http.exceptions.UnirestException;
+import db.Reference;
+import model.GPSPoint;
+import model.Match;
+import model.Player;
+import redis.clients.jedis.Jedis;
+import tools.metrics.Counter;
+import tools.metrics.LatencyHistogram;
+import tools.metrics.Metrics;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queue of the players looking for a match.
+ * <p>
+ * Every player enqueues with a variant and the window of quotes he accepts for the other
+ * players, and optionally with his position and the distance he is ready to travel. The tickets
+ * of each variant are bucketed by quote, so that a player is only compared with the players whose
+ * quote lies in his window. A matching round runs every second: the waiting players are taken
+ * from the oldest to the newest and each of them is grouped with the first three players that are
+ * mutually compatible with him and with each other. The matches found are created in Firebase and
+ * their players notified through FCM.
+ */
+class MatchmakingQueue {
+    private static final int BUCKET_WIDTH = 50;
+    private static final long ROUND_PERIOD_MILLIS = 1000;
+    private static final int PLAYERS_PER_MATCH = 4;
+    private static final LatencyHistogram REDIS_GET = Metrics.redis("get");
+
+    private final Reference refMatches;
+    private final Jedis jedis;
+    private final Gson gson;
+    private final ScheduledExecutorService scheduler;
+
+    // Waiting tickets by sciper, oldest first
+    private final LinkedHashMap<String, Ticket> tickets = new LinkedHashMap<>();
+    private final Map<Match.GameVariant, Map<Integer, List<Ticket>>> buckets = new EnumMap<>(Match.GameVariant.class);
+
+    // Wait time statistics of the matched players
+    private final LatencyHistogram waitTime = Metrics.histogram("matchmaking_wait_seconds",
+            "Time the matched players waited in the queue");
+    private final Counter createdMatches = Metrics.counter("matchmaking_matches_created_total",
+            "Matches created by the matchmaking queue");
+    private final LatencyHistogram roundTime = Metrics.histogram("matchmaking_round_duration_seconds",
+            "Duration of the matching rounds");
+    private final LatencyHistogram roundLag = Metrics.timerLag("matchmakingRound");
+    private long lastRoundMillis;
+    // Time the next round is due, only used by the scheduler thread
+    private long nextRoundDue;
+
+    /**
+     * Constructor
+     *
+     * @param refMatches the matches section of the database, where the matches are created
+     */
+    MatchmakingQueue(Reference refMatches) {
+        this.refMatches = refMatches;
+        this.jedis = new Jedis(Main.REDIS_URL);
+        this.gson = new Gson();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "matchmaking");
+            t.setDaemon(true);
+            return t;
+        });
+        Metrics.gauge("matchmaking_waiting_players", "Players waiting in the matchmaking queue", this::size);
+    }
+
+    /**
+     * Starts the periodic matching rounds.
+     */
+    void start() {
+        nextRoundDue = System.currentTimeMillis() + ROUND_PERIOD_MILLIS;
+        scheduler.scheduleWithFixedDelay(() -> {
+            roundLag.recordMillis(System.currentTimeMillis() - nextRoundDue);
+            try {
+                runRound();
+            } catch (RuntimeException e) {
+                Main.logger.error("Matchmaking round failed", e);
+            }
+            nextRoundDue = System.currentTimeMillis() + ROUND_PERIOD_MILLIS;
+        }, ROUND_PERIOD_MILLIS, ROUND_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Adds a ticket to the queue, replacing the previous ticket of the same player.
+     *
+     * @param ticket the ticket of the player
+     */
+    synchronized void enqueue(Ticket ticket) {
+        String sciper = ticket.player.getID().toString();
+        removeTicket(sciper);
+        tickets.put(sciper, ticket);
+        buckets.computeIfAbsent(ticket.variant, v -> new HashMap<>())
+                .computeIfAbsent(bucketOf(ticket.quote), b -> new ArrayList<>())
+                .add(ticket);
+        Main.logger.info("Player " + sciper + " queued for " + ticket.variant + " in [" + ticket.minQuote
+                + ", " + ticket.maxQuote + "]");
+    }
+
+    /**
+     * Removes the ticket of the given player.
+     *
+     * @param sciper the player
+     * @return true if the player was waiting, false otherwise
+     */
+    synchronized boolean dequeue(String sciper) {
+        return removeTicket(sciper);
+    }
+
+    synchronized int size() {
+        return tickets.size();
+    }
+
+    /**
+     * @return the size of the queue and the wait time statistics of the matched players
+     */
+    synchronized JsonObject statistics() {
+        JsonObject stats = new JsonObject();
+        long now = System.currentTimeMillis();
+        long oldestWait = tickets.isEmpty() ? 0 : now - tickets.values().iterator().next().enqueuedAt;
+        stats.addProperty("waiting", tickets.size());
+        stats.addProperty("oldestWaitMillis", oldestWait);
+        stats.addProperty("createdMatches", createdMatches.value());
+        stats.addProperty("matchedPlayers", waitTime.count());
+        stats.addProperty("averageWaitMillis", waitTime.meanMicros() / 1000);
+        stats.addProperty("maxWaitMillis", waitTime.maxMicros() / 1000);
+        stats.addProperty("lastRoundMillis", lastRoundMillis);
+        return stats;
+    }
+
+    private void runRound() {
+        List<List<Ticket>> groups = matchRound();
+        for (List<Ticket> group : groups) {
+            createMatch(group);
+        }
+    }
+
+    /**
+     * Groups the waiting players and removes the groups found from the queue.
+     *
+     * @return the groups of four players to put in a match
+     */
+    synchronized List<List<Ticket>> matchRound() {
+        long start = System.currentTimeMillis();
+        List<List<Ticket>> groups = new ArrayList<>();
+        Set<Ticket> matched = new HashSet<>();
+
+        for (Ticket anchor : tickets.values()) {
+            if (matched.contains(anchor)) {
+                continue;
+            }
+            List<Ticket> group = findGroup(anchor, matched);
+            if (group != null) {
+                matched.addAll(group);
+                groups.add(group);
+            }
+        }
+
+        for (List<Ticket> group : groups) {
+            for (Ticket t : group) {
+                removeTicket(t.player.getID().toString());
+                waitTime.recordMillis(start - t.enqueuedAt);
+            }
+            createdMatches.inc();
+        }
+        lastRoundMillis = System.currentTimeMillis() - start;
+        roundTime.recordMillis(lastRoundMillis);
+        return groups;
+    }
+
+    private List<Ticket> findGroup(Ticket anchor, Set<Ticket> matched) {
+        Map<Integer, List<Ticket>> variantBuckets = buckets.get(anchor.variant);
+        List<Ticket> group = new ArrayList<>(PLAYERS_PER_MATCH);
+        group.add(anchor);
+        for (int b = bucketOf(anchor.minQuote); b <= bucketOf(anchor.maxQuote); ++b) {
+            List<Ticket> bucket = variantBuckets.get(b);
+            if (bucket == null) {
+                continue;
+            }
+            for (Ticket candidate : bucket) {
+                if (candidate != anchor && !matched.contains(candidate) && compatibleWithAll(candidate, group)) {
+                    group.add(candidate);
+                    if (group.size() == PLAYERS_PER_MATCH) {
+                        return group;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    private static boolean compatibleWithAll(Ticket candidate, List<Ticket> group) {
+        for (Ticket t : group) {
+            if (!t.accepts(candidate) || !candidate.accepts(t)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean removeTicket(String sciper) {
+        Ticket ticket = tickets.remove(sciper);
+        if (ticket == null) {
+            return false;
+        }
+        Map<Integer, List<Ticket>> variantBuckets = buckets.get(ticket.variant);
+        List<Ticket> bucket = variantBuckets.get(bucketOf(ticket.quote));
+        bucket.remove(ticket);
+        if (bucket.isEmpty()) {
+            variantBuckets.remove(bucketOf(ticket.quote));
+        }
+        return true;
+    }
+
+    private void createMatch(List<Ticket> group) {
+        Reference refMatch = refMatches.push();
+        Match.Builder builder = new Match.Builder()
+                .setMatchID(refMatch.getKey())
+                .setVariant(group.get(0).variant)
+                .setDescription("Matchmaking");
+        GPSPoint meetingPoint = meetingPoint(group);
+        if (meetingPoint != null) {
+            builder.setLocation(meetingPoint);
+        }
+        try {
+            for (Ticket t : group) {
+                builder.addPlayer(t.player);
+            }
+        } catch (IllegalAccessException | IllegalStateException e) {
+            Main.logger.error("Could not build match from queue", e);
+            return;
+        }
+        Match match = builder.build();
+        refMatch.setValue(match);
+        Main.logger.info("Matchmaking created match " + match.getMatchID());
+        notifyMatchFound(match);
+    }
+
+    /**
+     * @return the centroid of the positions of the players who gave one, null if none did
+     */
+    private static GPSPoint meetingPoint(List<Ticket> group) {
+        double latitude = 0;
+        double longitude = 0;
+        int located = 0;
+        for (Ticket t : group) {
+            if (t.location != null) {
+                latitude += t.location.getLatitude();
+                longitude += t.location.getLongitude();
+                ++located;
+            }
+        }
+        return located == 0 ? null : new GPSPoint(latitude / located, longitude / located);
+    }
+
+    private void notifyMatchFound(Match match) {
+        JsonObject data = new JsonObject();
+        data.addProperty("type", "matchfound");
+        data.addProperty("matchId", match.getMatchID());
+        data.addProperty("title", "Jass@EPFL");
+        data.addProperty("body", "We found a match for you!");
+
+        JsonArray ids = new JsonArray();
+        for (Player p : match.getPlayers()) {
+            ids.add(REDIS_GET.time(() -> jedis.get(p.getID().toString())));
+        }
+        JsonObject msg = new JsonObject();
+        msg.add("registration_ids", ids);
+        msg.add("data", data);
+        try {
+            Main.logger.info(Main.sendFcm(gson.toJson(msg)));
+        } catch (UnirestException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static int bucketOf(int quote) {
+        return Math.floorDiv(quote, BUCKET_WIDTH);
+    }
+
+    /**
+     * The request of a player waiting in the queue.
+     */
+    static final class Ticket {
+        private final Player player;
+        private final int quote;
+        private final Match.GameVariant variant;
+        private final int minQuote;
+        private final int maxQuote;
+        private final GPSPoint location;
+        private final double maxDistance;
+        private final long enqueuedAt;
+
+        /**
+         * Constructor
+         *
+         * @param player      the waiting player
+         * @param variant     the variant he wants to play
+         * @param minQuote    the lowest quote he accepts for the other players
+         * @param maxQuote    the highest quote he accepts for the other players
+         * @param location    his position, null if any position suits him
+         * @param maxDistance the largest distance in meters he accepts to the other players
+         */
+        Ticket(Player player, Match.GameVariant variant, int minQuote, int maxQuote,
+               GPSPoint location, double maxDistance) {
+            if (minQuote > maxQuote) {
+                throw new IllegalArgumentException("Empty quote window");
+            }
+            this.player = player;
+            this.quote = player.getQuote();
+            this.variant = variant;
+            this.minQuote = minQuote;
+            this.maxQuote = maxQuote;
+            this.location = location;
+            this.maxDistance = maxDistance;
+            this.enqueuedAt = System.currentTimeMillis();
+        }
+
+        /**
+         * Checks whether the other player fits the quote window and distance of this ticket.
+         */
+        private boolean accepts(Ticket other) {
+            if (other.quote < minQuote || other.quote > maxQuote) {
+                return false;
+            }
+            return location == null || other.location == null
+                    || MatchLocationIndex.distance(location.getLatitude(), location.getLongitude(),
+                    other.location.getLatitude(), other.location.getLongitude()) <= maxDistance;
+        }
+    }
+}
@@ -1,41 +1,38 @@
 package server;
 
-import com.google.firebase.database.ChildEventListener;
-import com.google.firebase.database.DataSnapshot;
-import com.google.firebase.database.DatabaseError;
+import db.ChildListener;
+import db.Snapshot;
 import model.Player;
-import redis.clients.jedis.Jedis;
+import stats.NameDictionary;
 
 /**
  * Created by vinz on 12/21/16.
+ * <p>
+ * Keeps the {@link NameDictionary} up to date with the players section of the database, including
+ * the renames.
  */
-public class Namer implements ChildEventListener {
-    private final Jedis jedis = new Jedis(Main.REDIS_URL);
-
-    @Override
-    public void onChildAdded(DataSnapshot dataSnapshot, String s) {
-        Player p = dataSnapshot.getValue(Player.class);
-        jedis.set(p.getID().toString() + 'N', p.getFirstName());
-        Main.logger.debug("Server saved name " + p.getFirstName());
-    }
-
-    @Override
-    public void onChildChanged(DataSnapshot dataSnapshot, String s) {
+public class Namer implements ChildListener {
+    private final NameDictionary names;
 
+    public Namer(NameDictionary names) {
+        this.names = names;
     }
 
     @Override
-    public void onChildRemoved(DataSnapshot dataSnapshot) {
-
+    public void onChildAdded(Snapshot dataSnapshot) {
+        Player p = dataSnapshot.getValue(Player.class);
+        names.put(p.getID().toString(), p.getFirstName());
+        Main.logger.debug("Server saved name " + p.getFirstName());
     }
 
     @Override
-    public void onChildMoved(DataSnapshot dataSnapshot, String s) {
-
+    public void onChildChanged(Snapshot dataSnapshot) {
+        Player p = dataSnapshot.getValue(Player.class);
+        names.put(p.getID().toString(), p.getFirstName());
     }
 
     @Override
-    public void onCancelled(DatabaseError databaseError) {
-
+    public void onChildRemoved(Snapshot dataSnapshot) {
+        names.remove(dataSnapshot.getKey());
     }
 }
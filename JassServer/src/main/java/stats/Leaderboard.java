@@ -0,0 +1,246 @@
+package stats;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.Query;
+import model.Match;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Tuple;
+import redis.clients.jedis.params.sortedset.ZAddParams;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.function.IntConsumer;
+
+import server.Main;
+import stats.trueskill.Rank;
+import tools.metrics.LatencyHistogram;
+import tools.metrics.Metrics;
+
+/**
+ * Ranking of the players by quote, kept in redis sorted sets.
+ * <p>
+ * The global set holds every rated player. There is also one set per variant, holding the
+ * players who played that variant at least once, scored by the same global quote. The sets are
+ * updated with each new rank from the stats pipeline, so that every update and every lookup is a
+ * logarithmic redis operation. Every update also increments a version, which tells the views
+ * derived from the leaderboard, such as the {@link QuoteHistogram}, whether they are up to date.
+ */
+public class Leaderboard implements RatingListener {
+    private static final String GLOBAL_KEY = "leaderboard";
+    private static final String VERSION_KEY = "leaderboard:version";
+    private static final String LOADING_SUFFIX = ":loading";
+    private static final int PAGE_SIZE = 500;
+    private static final int SCAN_SIZE = 10000;
+    private static final LatencyHistogram REDIS_PIPELINE = Metrics.redis("pipeline");
+    private static final LatencyHistogram REDIS_ZREVRANGE = Metrics.redis("zrevrange");
+    private static final LatencyHistogram REDIS_ZREVRANK = Metrics.redis("zrevrank");
+    private static final LatencyHistogram REDIS_ZSCORE = Metrics.redis("zscore");
+    private static final LatencyHistogram REDIS_ZCARD = Metrics.redis("zcard");
+    private static final LatencyHistogram REDIS_GET = Metrics.redis("get");
+
+    private final Jedis jedis;
+
+    public Leaderboard() {
+        this(new Jedis(Main.REDIS_URL));
+    }
+
+    public Leaderboard(Jedis jedis) {
+        this.jedis = jedis;
+    }
+
+    @Override
+    public synchronized void onRatingChanged(String sciper, Rank oldRank, Rank newRank, Match.GameVariant variant) {
+        int quote = newRank.computeRank();
+        Pipeline pipeline = jedis.pipelined();
+        pipeline.zadd(GLOBAL_KEY, quote, sciper);
+        pipeline.incr(VERSION_KEY);
+        for (Match.GameVariant v : Match.GameVariant.values()) {
+            if (v == variant) {
+                pipeline.zadd(key(v), quote, sciper);
+            } else {
+                // Only refresh the quote in the variants the player already appears in
+                pipeline.zadd(key(v), quote, sciper, ZAddParams.zAddParams().xx());
+            }
+        }
+        REDIS_PIPELINE.time(pipeline::sync);
+    }
+
+    /**
+     * Returns a page of the leaderboard, best players first.
+     *
+     * @param variant the variant of the leaderboard, null for the global one
+     * @param page    the index of the page, starting at 0
+     * @param size    the number of players per page
+     * @return the standings of the page
+     */
+    public synchronized List<Standing> page(Match.GameVariant variant, int page, int size) {
+        long start = (long) page * size;
+        List<Standing> standings = new ArrayList<>(size);
+        long position = start;
+        Set<Tuple> scores = REDIS_ZREVRANGE.time(() -> jedis.zrevrangeWithScores(key(variant), start, start + size - 1));
+        for (Tuple t : scores) {
+            standings.add(new Standing(t.getElement(), (int) t.getScore(), ++position));
+        }
+        return standings;
+    }
+
+    /**
+     * Returns the position of the given player in the leaderboard.
+     *
+     * @param sciper  the player
+     * @param variant the variant of the leaderboard, null for the global one
+     * @return the standing of the player, null if he is not ranked
+     */
+    public synchronized Standing standing(String sciper, Match.GameVariant variant) {
+        String key = key(variant);
+        Long rank = REDIS_ZREVRANK.time(() -> jedis.zrevrank(key, sciper));
+        Double score = REDIS_ZSCORE.time(() -> jedis.zscore(key, sciper));
+        return rank == null || score == null ? null : new Standing(sciper, score.intValue(), rank + 1);
+    }
+
+    /**
+     * @param variant the variant of the leaderboard, null for the global one
+     * @return the number of ranked players
+     */
+    public synchronized long size(Match.GameVariant variant) {
+        return REDIS_ZCARD.time(() -> jedis.zcard(key(variant)));
+    }
+
+    /**
+     * @return the number of updates of the leaderboard, which changes whenever a quote changes
+     */
+    public synchronized long version() {
+        String version = REDIS_GET.time(() -> jedis.get(VERSION_KEY));
+        return version == null ? 0 : Long.parseLong(version);
+    }
+
+    /**
+     * Passes the quote of every player of the global leaderboard to the given consumer.
+     *
+     * @param consumer the consumer of the quotes
+     */
+    public synchronized void forEachQuote(IntConsumer consumer) {
+        for (long start = 0; ; start += SCAN_SIZE) {
+            Set<Tuple> chunk = jedis.zrangeWithScores(GLOBAL_KEY, start, start + SCAN_SIZE - 1);
+            for (Tuple t : chunk) {
+                consumer.accept((int) t.getScore());
+            }
+            if (chunk.size() < SCAN_SIZE) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Rebuilds all the sets from the userStats section of the database. The new sets are filled
+     * aside and swapped in at the end, so the leaderboard stays readable during the load.
+     *
+     * @param refUserStats the userStats section of the database
+     * @return the number of ranked players
+     */
+    public synchronized int load(DatabaseReference refUserStats) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        jedis.del(GLOBAL_KEY + LOADING_SUFFIX);
+        for (Match.GameVariant v : Match.GameVariant.values()) {
+            jedis.del(key(v) + LOADING_SUFFIX);
+        }
+
+        int loaded = 0;
+        String lastKey = null;
+        boolean lastPage = false;
+        while (!lastPage) {
+            Query pageQuery = lastKey == null
+                    ? refUserStats.orderByKey().limitToFirst(PAGE_SIZE)
+                    : refUserStats.orderByKey().startAt(lastKey).limitToFirst(PAGE_SIZE + 1);
+            Pipeline pipeline = jedis.pipelined();
+            int pageSize = 0;
+            String previousKey = lastKey;
+            for (DataSnapshot child : StatsRebuilder.readOnce(pageQuery).getChildren()) {
+                if (child.getKey().equals(previousKey)) {
+                    continue;
+                }
+                ++pageSize;
+                lastKey = child.getKey();
+                Rank rank = child.child("rank").getValue(Rank.class);
+                if (rank == null) {
+                    continue;
+                }
+                int quote = rank.computeRank();
+                pipeline.zadd(GLOBAL_KEY + LOADING_SUFFIX, quote, child.getKey());
+                for (DataSnapshot played : child.child("variants").getChildren()) {
+                    Match.GameVariant variant = variantNamed(played.getKey());
+                    if (variant != null) {
+                        pipeline.zadd(key(variant) + LOADING_SUFFIX, quote, child.getKey());
+                    }
+                }
+                ++loaded;
+            }
+            pipeline.sync();
+            lastPage = pageSize < PAGE_SIZE;
+        }
+
+        swap(GLOBAL_KEY);
+        for (Match.GameVariant v : Match.GameVariant.values()) {
+            swap(key(v));
+        }
+        jedis.incr(VERSION_KEY);
+        Main.logger.info("Loaded " + loaded + " players in the leaderboard in "
+                + (System.currentTimeMillis() - start) + " ms");
+        return loaded;
+    }
+
+    private void swap(String key) {
+        if (jedis.exists(key + LOADING_SUFFIX)) {
+            jedis.rename(key + LOADING_SUFFIX, key);
+        } else {
+            jedis.del(key);
+        }
+    }
+
+    /**
+     * Finds the variant with the given display name, as used in the variants of the UserStats.
+     */
+    private static Match.GameVariant variantNamed(String name) {
+        for (Match.GameVariant v : Match.GameVariant.values()) {
+            if (v.toString().equals(name)) {
+                return v;
+            }
+        }
+        return null;
+    }
+
+    private static String key(Match.GameVariant variant) {
+        return variant == null ? GLOBAL_KEY : GLOBAL_KEY + ":" + variant.name();
+    }
+
+    /**
+     * The position of a player in a leaderboard.
+     */
+    public static final class Standing {
+        private final String sciper;
+        private final int quote;
+        // 1 for the best player
+        private final long position;
+
+        Standing(String sciper, int quote, long position) {
+            this.sciper = sciper;
+            this.quote = quote;
+            this.position = position;
+        }
+
+        public String getSciper() {
+            return sciper;
+        }
+
+        public int getQuote() {
+            return quote;
+        }
+
+        public long getPosition() {
+            return position;
+        }
+    }
+}
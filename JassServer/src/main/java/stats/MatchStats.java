@@ -91,6 +91,24 @@ public class MatchStats {
         return winnerIndex;
     }
 
+    /**
+     * Returns the ids of the players of the winning team, without copying them.
+     *
+     * @return An immutable list of the ids of the winners
+     */
+    public List<String> winners() {
+        return match.teamMembers(winnerIndex);
+    }
+
+    /**
+     * Returns the ids of the players of the losing team of a two teams match, without copying them.
+     *
+     * @return An immutable list of the ids of the losers
+     */
+    public List<String> losers() {
+        return match.teamMembers((winnerIndex + 1) % 2);
+    }
+
     public boolean goalHasBeenReached() {
         return updateGoalAndWinner();
     }
@@ -0,0 +1,107 @@
+package stats;
+
+import db.Reference;
+import db.Snapshot;
+import redis.clients.jedis.Jedis;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import server.Main;
+
+/**
+ * In-memory dictionary from sciper to the name displayed in the graphs.
+ * <p>
+ * It is bulk loaded from the players section of the database at startup and then kept current
+ * by the Namer. The names can also be mirrored to a redis hash for other processes; the mirror is
+ * only written when a name actually changes.
+ */
+public class NameDictionary {
+    private static final String MIRROR_KEY = "players:names";
+
+    private final ConcurrentHashMap<String, String> names = new ConcurrentHashMap<>();
+    private final Jedis mirror;
+
+    public NameDictionary() {
+        this(null);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param mirror the redis connection the names are mirrored to, null to keep them in memory
+     */
+    public NameDictionary(Jedis mirror) {
+        this.mirror = mirror;
+    }
+
+    /**
+     * @param sciper the player
+     * @return the name of the player, or his sciper if the name is unknown
+     */
+    public String nameOf(String sciper) {
+        return names.getOrDefault(sciper, sciper);
+    }
+
+    /**
+     * Records the name of the given player.
+     *
+     * @param sciper the player
+     * @param name   his name
+     */
+    public void put(String sciper, String name) {
+        if (name == null) {
+            return;
+        }
+        String previous = names.put(sciper, name);
+        if (mirror != null && !name.equals(previous)) {
+            synchronized (mirror) {
+                mirror.hset(MIRROR_KEY, sciper, name);
+            }
+        }
+    }
+
+    /**
+     * Forgets the name of the given player.
+     *
+     * @param sciper the player
+     */
+    public void remove(String sciper) {
+        if (names.remove(sciper) != null && mirror != null) {
+            synchronized (mirror) {
+                mirror.hdel(MIRROR_KEY, sciper);
+            }
+        }
+    }
+
+    public int size() {
+        return names.size();
+    }
+
+    /**
+     * Loads the names of all the players in a single read, and mirrors them in a single write.
+     *
+     * @param refPlayers the players section of the database
+     */
+    public void load(Reference refPlayers) {
+        refPlayers.readOnce(dataSnapshot -> {
+            long start = System.currentTimeMillis();
+            Map<String, String> loaded = new HashMap<>();
+            for (Snapshot player : dataSnapshot.getChildren()) {
+                String name = player.child("firstName").getValue(String.class);
+                if (name != null) {
+                    loaded.put(player.getKey(), name);
+                }
+            }
+            names.putAll(loaded);
+            if (mirror != null && !loaded.isEmpty()) {
+                synchronized (mirror) {
+                    mirror.hmset(MIRROR_KEY, loaded);
+                }
+            }
+            Main.logger.info("Loaded " + loaded.size() + " player names in "
+                    + (System.currentTimeMillis() - start) + " ms");
+        });
+    }
+}
@@ -0,0 +1,141 @@
+package stats;
+
+import db.Snapshot;
+import tools.metrics.Counter;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Bounded queue of plot jobs, at most one per player, served by priority.
+ * <p>
+ * The priority of a job is the time of the last change of the stats of its player, so the most
+ * recently active players are plotted first. When the queue is full, the job with the lowest
+ * priority is shed to make room, since its player is the one least likely to be looking at his
+ * graphs. A job offered for a player who is already queued replaces the queued snapshot.
+ * <p>
+ * A player whose job is being run is not queued again: if the older job finished last, its graphs
+ * would overwrite the newer ones. The new job is parked instead, at most one per player, and
+ * queued when the running job is {@link #done(Job) done}.
+ */
+class PlotJobQueue {
+    private final int capacity;
+    private final Counter shed;
+    private final Counter replaced;
+    // Highest priority first, ties broken by arrival order
+    private final TreeSet<Job> jobs = new TreeSet<>((a, b) -> a.lastChange != b.lastChange
+            ? Long.compare(b.lastChange, a.lastChange)
+            : Long.compare(a.sequence, b.sequence));
+    private final Map<String, Job> jobByPlayer = new HashMap<>();
+    private final Set<String> running = new HashSet<>();
+    // Next job of the players whose job is being run
+    private final Map<String, Job> parked = new HashMap<>();
+    private long sequence;
+
+    /**
+     * Constructor
+     *
+     * @param capacity the maximum number of queued jobs
+     * @param shed     the counter of the jobs dropped because the queue was full
+     * @param replaced the counter of the jobs replaced by a newer snapshot of the same player
+     */
+    PlotJobQueue(int capacity, Counter shed, Counter replaced) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.shed = shed;
+        this.replaced = replaced;
+    }
+
+    /**
+     * Queues the plot of the given snapshot, or parks it if a job of the player is being run.
+     *
+     * @param sciper     the player
+     * @param snapshot   the latest stats of the player
+     * @param lastChange the time of the last change of the stats in milliseconds
+     */
+    synchronized void offer(String sciper, Snapshot snapshot, long lastChange) {
+        Job job = new Job(sciper, snapshot, lastChange, System.currentTimeMillis(), sequence++);
+        if (running.contains(sciper)) {
+            if (parked.put(sciper, job) != null) {
+                replaced.inc();
+            }
+            return;
+        }
+        enqueue(job);
+    }
+
+    /**
+     * Removes the job with the highest priority, waiting for one if the queue is empty. The
+     * player of the job is running until {@link #done(Job)} is called.
+     *
+     * @return the job to run
+     */
+    synchronized Job take() throws InterruptedException {
+        while (jobs.isEmpty()) {
+            wait();
+        }
+        Job job = jobs.pollFirst();
+        jobByPlayer.remove(job.sciper);
+        running.add(job.sciper);
+        return job;
+    }
+
+    /**
+     * Ends a job returned by {@link #take()}, and queues the job parked for its player if any.
+     *
+     * @param job the job that was run
+     */
+    synchronized void done(Job job) {
+        running.remove(job.sciper);
+        Job next = parked.remove(job.sciper);
+        if (next != null) {
+            enqueue(next);
+        }
+    }
+
+    /**
+     * @return the number of jobs waiting, queued or parked
+     */
+    synchronized int size() {
+        return jobs.size() + parked.size();
+    }
+
+    private void enqueue(Job job) {
+        Job previous = jobByPlayer.remove(job.sciper);
+        if (previous != null) {
+            jobs.remove(previous);
+            replaced.inc();
+        } else if (jobs.size() == capacity) {
+            Job lowest = jobs.pollLast();
+            jobByPlayer.remove(lowest.sciper);
+            shed.inc();
+        }
+        jobs.add(job);
+        jobByPlayer.put(job.sciper, job);
+        notifyAll();
+    }
+
+    /**
+     * A queued plot of the stats of a player.
+     */
+    static final class Job {
+        final String sciper;
+        final Snapshot snapshot;
+        final long lastChange;
+        final long queuedAt;
+        private final long sequence;
+
+        private Job(String sciper, Snapshot snapshot, long lastChange, long queuedAt, long sequence) {
+            this.sciper = sciper;
+            this.snapshot = snapshot;
+            this.lastChange = lastChange;
+            this.queuedAt = queuedAt;
+            this.sequence = sequence;
+        }
+    }
+}
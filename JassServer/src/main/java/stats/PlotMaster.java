@@ -1,53 +1,263 @@
 package stats;
 
-import com.google.firebase.database.ChildEventListener;
-import com.google.firebase.database.DataSnapshot;
-import com.google.firebase.database.DatabaseError;
 import com.google.gson.Gson;
 import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.mashape.unirest.http.HttpResponse;
 import com.mashape.unirest.http.Unirest;
 import com.mashape.unirest.http.exceptions.UnirestException;
 import com.mashape.unirest.request.body.RequestBodyEntity;
+import db.ChildListener;
+import db.Snapshot;
 import redis.clients.jedis.Jedis;
 import server.Main;
+import tools.metrics.Counter;
+import tools.metrics.LatencyHistogram;
+import tools.metrics.Metrics;
 
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by vinz on 11/24/16.
+ * <p>
+ * A finished match writes the stats of a player in several steps, each of them firing
+ * onChildChanged. The changes of a player are therefore debounced: the first one schedules a plot
+ * job {@link #DEBOUNCE_MILLIS} later, the following ones only replace the snapshot that job will
+ * plot, so a burst of writes produces a single request to the plotter with the latest stats.
+ * <p>
+ * The hash of the payload of every graph last plotted is kept in redis, and only the graphs whose
+ * payload changed are sent. Deleting the plots:hashes keys forces all the graphs to be plotted
+ * again.
+ * <p>
+ * The debounced jobs go through a bounded {@link PlotJobQueue} served by a fixed number of
+ * workers, so a slow plotter neither blocks the Firebase callbacks nor lets the backlog grow
+ * without limit.
  */
-public class PlotMaster implements ChildEventListener {
+public class PlotMaster implements ChildListener {
     private final Gson gson = new Gson();
-    private static final String PLOTTER_URL = "http://graphplotter:5000/";
-    private final Jedis jedis = new Jedis(Main.REDIS_URL);
+    private static final long DEBOUNCE_MILLIS = 2000;
+    private static final String HASHES_KEY_PREFIX = "plots:hashes:";
+    // Graphs of inactive players are eventually plotted again, in case their file was lost
+    private static final int HASHES_TTL_SECONDS = 30 * 24 * 3600;
+    private static final int GRAPH_COUNT = 6;
+    private static final LatencyHistogram REDIS_HGETALL = Metrics.redis("hgetall");
+    private static final LatencyHistogram REDIS_HMSET = Metrics.redis("hmset");
+    private static final LatencyHistogram REDIS_EXPIRE = Metrics.redis("expire");
+
+    // Latest change of the players with a scheduled plot job
+    private final ConcurrentHashMap<String, Change> pending = new ConcurrentHashMap<>();
+    private final PlotJobQueue queue;
+    private final String plotterUrl;
+    private final NameDictionary names;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "plot-master");
+        t.setDaemon(true);
+        return t;
+    });
+    private final Counter coalescedJobs = Metrics.counter("plot_jobs_coalesced_total",
+            "Changes merged into an already scheduled plot job");
+    private final Counter sentJobs = Metrics.counter("plot_jobs_sent_total", "Plot jobs sent to the plotter");
+    private final Counter sentGraphs = Metrics.counter("plot_graphs_sent_total", "Graphs sent to the plotter");
+    private final Counter skippedGraphs = Metrics.counter("plot_graphs_skipped_total",
+            "Graphs not sent because their payload did not change");
+    private final Counter shedJobs = Metrics.counter("plot_jobs_shed_total",
+            "Plot jobs dropped because the queue was full");
+    private final Counter replacedJobs = Metrics.counter("plot_jobs_replaced_total",
+            "Plot jobs replaced by a newer snapshot before they ran");
+    private final LatencyHistogram renderTime = Metrics.histogram("plot_render_duration_seconds",
+            "Time a worker spent on a plot job");
+    private final LatencyHistogram queueTime = Metrics.histogram("plot_queue_wait_seconds",
+            "Time a plot job waited for a worker");
+    private final LatencyHistogram debounceLag = Metrics.timerLag("plotDebounce");
+
+    /**
+     * Constructor
+     *
+     * @param plotterUrl    the URL the graphs are sent to
+     * @param names         the names used to label the partners of the players
+     * @param workers       the number of concurrent requests to the plotter
+     * @param queueCapacity the maximum number of plot jobs waiting for a worker
+     */
+    public PlotMaster(String plotterUrl, NameDictionary names, int workers, int queueCapacity) {
+        this.plotterUrl = plotterUrl;
+        this.names = names;
+        this.queue = new PlotJobQueue(queueCapacity, shedJobs, replacedJobs);
+        for (int i = 0; i < workers; ++i) {
+            Thread worker = new Thread(this::work, "plot-worker-" + i);
+            worker.setDaemon(true);
+            worker.start();
+        }
+        Metrics.gauge("plot_jobs_queued", "Plot jobs waiting for a worker", queue::size);
+    }
 
     @Override
-    public void onChildAdded(DataSnapshot dataSnapshot, String s) {
+    public void onChildAdded(Snapshot dataSnapshot) {
     }
 
     @Override
-    public void onChildChanged(DataSnapshot dataSnapshot, String s) {
-        UserStats stats = dataSnapshot.getValue(UserStats.class);
-        allGraphs(stats);
+    public void onChildChanged(Snapshot dataSnapshot) {
+        String sciper = dataSnapshot.getKey();
+        if (pending.put(sciper, new Change(dataSnapshot, System.currentTimeMillis())) == null) {
+            long due = System.currentTimeMillis() + DEBOUNCE_MILLIS;
+            scheduler.schedule(() -> plot(sciper, due), DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+        } else {
+            coalescedJobs.inc();
+        }
+    }
+
+    /**
+     * @return the number of changes merged into an already scheduled plot job
+     */
+    public long coalescedJobs() {
+        return coalescedJobs.value();
+    }
+
+    /**
+     * @return the number of plot jobs sent to the plotter
+     */
+    public long sentJobs() {
+        return sentJobs.value();
+    }
+
+    /**
+     * @return the number of graphs sent to the plotter
+     */
+    public long sentGraphs() {
+        return sentGraphs.value();
+    }
+
+    /**
+     * @return the number of graphs not sent because their payload did not change
+     */
+    public long skippedGraphs() {
+        return skippedGraphs.value();
+    }
+
+    /**
+     * @return the number of plot jobs waiting for a worker
+     */
+    public int queuedJobs() {
+        return queue.size();
+    }
+
+    /**
+     * @return the number of plot jobs dropped because the queue was full
+     */
+    public long shedJobs() {
+        return shedJobs.value();
+    }
+
+    /**
+     * @return the number of plot jobs replaced by a newer snapshot before they ran
+     */
+    public long replacedJobs() {
+        return replacedJobs.value();
+    }
+
+    /**
+     * @return the number of plot jobs that have been run by a worker
+     */
+    public long renderedJobs() {
+        return renderTime.count();
+    }
+
+    /**
+     * @return the average time in milliseconds a worker spent on a plot job
+     */
+    public long averageRenderMillis() {
+        return renderTime.meanMicros() / 1000;
+    }
+
+    /**
+     * @return the longest time in milliseconds a worker spent on a plot job
+     */
+    public long maxRenderMillis() {
+        return renderTime.maxMicros() / 1000;
     }
 
-    private void allGraphs(UserStats stats) {
-        JsonObject bars = generateBars(stats, stats.getPlayerId().toString());
-        JsonObject times = generateTimes(stats, stats.getPlayerId().toString());
+    /**
+     * @return the average time in milliseconds a plot job waited for a worker
+     */
+    public long averageQueueMillis() {
+        return queueTime.meanMicros() / 1000;
+    }
+
+    private void plot(String sciper, long due) {
+        debounceLag.recordMillis(System.currentTimeMillis() - due);
+        Change latest = pending.remove(sciper);
+        if (latest != null) {
+            queue.offer(sciper, latest.snapshot, latest.at);
+        }
+    }
+
+    private void work() {
+        // Jedis connections cannot be shared between threads
+        Jedis jedis = new Jedis(Main.REDIS_URL);
+        while (!Thread.currentThread().isInterrupted()) {
+            PlotJobQueue.Job job;
+            try {
+                job = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            long start = System.currentTimeMillis();
+            try {
+                allGraphs(job.snapshot.getValue(UserStats.class), jedis);
+                sentJobs.inc();
+            } catch (RuntimeException e) {
+                Main.logger.error("Could not plot stats of player " + job.sciper, e);
+            } finally {
+                queue.done(job);
+            }
+            renderTime.recordMillis(System.currentTimeMillis() - start);
+            queueTime.recordMillis(start - job.queuedAt);
+        }
+    }
+
+    private void allGraphs(UserStats stats, Jedis jedis) {
+        String sciper = stats.getPlayerId().toString();
+        JsonObject bars = generateBars(stats, sciper);
+        JsonObject times = generateTimes(stats, sciper);
+
+        // Only the graphs whose payload changed since they were last plotted are sent
+        String hashesKey = HASHES_KEY_PREFIX + sciper;
+        Map<String, String> plottedHashes = REDIS_HGETALL.time(() -> jedis.hgetAll(hashesKey));
+        Map<String, String> newHashes = new HashMap<>();
+        dropUnchanged(bars, plottedHashes, newHashes);
+        dropUnchanged(times, plottedHashes, newHashes);
+        skippedGraphs.add(GRAPH_COUNT - newHashes.size());
+        if (newHashes.isEmpty()) {
+            Main.logger.info("Graphs of player " + sciper + " are up to date");
+            return;
+        }
+
         JsonObject data = new JsonObject();
         data.add("bars", bars);
         data.add("times", times);
         String body = gson.toJson(data);
 
         try {
-            HttpResponse<String> res = Unirest.post(PLOTTER_URL)
+            HttpResponse<String> res = Unirest.post(plotterUrl)
                     .header("Content-Type", "application/json")
                     .body(body).asString();
             Main.logger.info("Request response was " + res);
+            if (res.getStatus() == 200) {
+                REDIS_HMSET.time(() -> jedis.hmset(hashesKey, newHashes));
+                REDIS_EXPIRE.time(() -> jedis.expire(hashesKey, HASHES_TTL_SECONDS));
+                sentGraphs.add(newHashes.size());
+            }
         } catch (UnirestException e) {
             e.printStackTrace();
         }
@@ -55,6 +265,32 @@ public class PlotMaster implements ChildEventListener {
 
     }
 
+    /**
+     * Removes from the given graphs the ones whose payload hash matches the last plotted one,
+     * and collects the hashes of the others.
+     */
+    private void dropUnchanged(JsonObject graphs, Map<String, String> plottedHashes, Map<String, String> newHashes) {
+        List<String> unchanged = new ArrayList<>();
+        for (Map.Entry<String, JsonElement> graph : graphs.entrySet()) {
+            String hash = hash(gson.toJson(graph.getValue()));
+            if (hash.equals(plottedHashes.get(graph.getKey()))) {
+                unchanged.add(graph.getKey());
+            } else {
+                newHashes.put(graph.getKey(), hash);
+            }
+        }
+        unchanged.forEach(graphs::remove);
+    }
+
+    static String hash(String payload) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(payload.getBytes(StandardCharsets.UTF_8));
+            return new BigInteger(1, digest).toString(16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not available", e);
+        }
+    }
+
     private JsonObject generateTimes(UserStats stats, String s) {
         String id = stats.getPlayerId().toString();
         JsonObject played = preparePayloadTime(stats.getPlayedByDate(), id, "played");
@@ -118,7 +354,7 @@ public class PlotMaster implements ChildEventListener {
         JsonArray values = new JsonArray();
         boolean needsName = graph.equals("wonWith") || graph.equals("partners");
         d.keySet().forEach(k -> {
-            labels.add(needsName ? jedis.get(k + 'N') : k);
+            labels.add(needsName ? names.nameOf(k) : k);
             values.add(d.get(k));
         });
         JsonObject body = new JsonObject();
@@ -148,17 +384,20 @@ public class PlotMaster implements ChildEventListener {
     }
 
     @Override
-    public void onChildRemoved(DataSnapshot dataSnapshot) {
+    public void onChildRemoved(Snapshot dataSnapshot) {
 
     }
 
-    @Override
-    public void onChildMoved(DataSnapshot dataSnapshot, String s) {
-
-    }
-
-    @Override
-    public void onCancelled(DatabaseError databaseError) {
+    /**
+     * The latest snapshot of the stats of a player, and the time it was received.
+     */
+    private static final class Change {
+        private final Snapshot snapshot;
+        private final long at;
 
+        Change(Snapshot snapshot, long at) {
+            this.snapshot = snapshot;
+            this.at = at;
+        }
     }
 }
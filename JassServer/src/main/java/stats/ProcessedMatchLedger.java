@@ -0,0 +1,58 @@
+package stats;
+
+import redis.clients.jedis.Jedis;
+import server.Main;
+import tools.metrics.LatencyHistogram;
+import tools.metrics.Metrics;
+
+/**
+ * Ledger of the matches whose statistics have already been ingested.
+ * <p>
+ * The match ids are kept in a redis sorted set, scored by the time at which they were processed,
+ * so that a buffer entry redelivered by Firebase (for instance after a restart that happened
+ * before the entry was removed) can be recognized in logarithmic time and dropped instead of
+ * being counted a second time. A redelivery follows the processing by at most the downtime of the
+ * server, so the entries older than thirty days are dropped and the set stays
+ * bounded.
+ */
+public class ProcessedMatchLedger {
+    private static final String PROCESSED_KEY = "stats:processedAt";
+    private static final long RETENTION_MILLIS = 30L * 24 * 3600 * 1000;
+    private static final LatencyHistogram REDIS_ZSCORE = Metrics.redis("zscore");
+    private static final LatencyHistogram REDIS_ZADD = Metrics.redis("zadd");
+    private static final LatencyHistogram REDIS_ZREMRANGEBYSCORE = Metrics.redis("zremrangebyscore");
+
+    private final Jedis jedis;
+
+    public ProcessedMatchLedger() {
+        this(new Jedis(Main.REDIS_URL));
+    }
+
+    public ProcessedMatchLedger(Jedis jedis) {
+        this.jedis = jedis;
+    }
+
+    /**
+     * Checks whether the stats of the given match have already been processed.
+     *
+     * @param matchId the unique identifier of the match
+     * @return true if the match is in the ledger, false otherwise
+     */
+    public synchronized boolean isProcessed(String matchId) {
+        return REDIS_ZSCORE.time(() -> jedis.zscore(PROCESSED_KEY, matchId)) != null;
+    }
+
+    /**
+     * Records the given match as processed, and forgets the matches processed before the
+     * retention period.
+     *
+     * @param matchId the unique identifier of the match
+     * @return true if the match was not in the ledger yet, false otherwise
+     */
+    public synchronized boolean markProcessed(String matchId) {
+        long now = System.currentTimeMillis();
+        boolean added = REDIS_ZADD.time(() -> jedis.zadd(PROCESSED_KEY, now, matchId)) == 1;
+        REDIS_ZREMRANGEBYSCORE.time(() -> jedis.zremrangeByScore(PROCESSED_KEY, 0, now - RETENTION_MILLIS));
+        return added;
+    }
+}
@@ -0,0 +1,280 @@
+package stats;
+
+import model.Match;
+import redis.clients.jedis.Jedis;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import server.Main;
+import stats.trueskill.Rank;
+
+/**
+ * Distribution of the quotes of all the rated players, used to place a player among the others.
+ * <p>
+ * Quotes are integers in a narrow range, so instead of an approximate quantile sketch the
+ * distribution is kept exactly in a Fenwick tree of counts indexed by quote: a rating change
+ * removes the old quote and adds the new one, and the number of players below a quote is a prefix
+ * sum, both in O(log R) for R = {@link #RANGE} possible quotes. Two histograms merge by adding
+ * their counts. The counts are periodically saved to redis, and when the server stops, so that a
+ * restart does not need to scan all the players again. A snapshot is stamped with the version of
+ * the {@link Leaderboard} it reflects, and only restored if the leaderboard did not change since:
+ * the changes applied after the last snapshot of a crashed server are then not lost, the
+ * histogram is rebuilt from the leaderboard instead.
+ */
+public class QuoteHistogram implements RatingListener {
+    private static final String SNAPSHOT_KEY = "stats:quoteHistogram";
+    private static final long SNAPSHOT_PERIOD_SECONDS = 60;
+    // Quotes outside of [MIN_QUOTE, MIN_QUOTE + RANGE) are counted at the closest bound
+    private static final int MIN_QUOTE = -1024;
+    private static final int RANGE = 4096;
+
+    // 1-based Fenwick tree over the quotes shifted by MIN_QUOTE
+    private final long[] tree = new long[RANGE + 1];
+    private long total;
+    // The version of the leaderboard the counts reflect, one more for every rating change
+    private long version;
+    private boolean dirty;
+
+    public QuoteHistogram() {
+    }
+
+    @Override
+    public synchronized void onRatingChanged(String sciper, Rank oldRank, Rank newRank, Match.GameVariant variant) {
+        if (oldRank != null) {
+            remove(oldRank.computeRank());
+        }
+        add(newRank.computeRank());
+        ++version;
+    }
+
+    /**
+     * Counts one more player with the given quote.
+     *
+     * @param quote the quote of the player
+     */
+    public synchronized void add(int quote) {
+        update(indexOf(quote), 1);
+        ++total;
+        dirty = true;
+    }
+
+    /**
+     * Forgets one player with the given quote.
+     *
+     * @param quote the quote of the player
+     */
+    public synchronized void remove(int quote) {
+        int index = indexOf(quote);
+        if (prefix(index) - prefix(index - 1) > 0) {
+            update(index, -1);
+            --total;
+            dirty = true;
+        }
+    }
+
+    /**
+     * Adds the counts of another histogram to this one.
+     *
+     * @param other the histogram to merge
+     */
+    public synchronized void merge(QuoteHistogram other) {
+        long[] counts = other.counts();
+        for (int i = 0; i < RANGE; ++i) {
+            if (counts[i] != 0) {
+                update(i + 1, counts[i]);
+                total += counts[i];
+            }
+        }
+        dirty = true;
+    }
+
+    /**
+     * Places the given quote among the quotes of all the players.
+     *
+     * @param quote the quote to place
+     * @return the placement of the quote
+     */
+    public synchronized Placement placement(int quote) {
+        int index = indexOf(quote);
+        long atMost = prefix(index);
+        long below = prefix(index - 1);
+        return new Placement(quote, below, atMost - below, total - atMost, total);
+    }
+
+    public synchronized long size() {
+        return total;
+    }
+
+    /**
+     * @return the version of the leaderboard the counts reflect
+     */
+    public synchronized long version() {
+        return version;
+    }
+
+    /**
+     * Saves the counts to redis if they changed since the last snapshot.
+     *
+     * @param jedis the redis connection
+     */
+    public void snapshot(Jedis jedis) {
+        byte[] bytes;
+        synchronized (this) {
+            if (!dirty) {
+                return;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(8 * (RANGE + 1));
+            buffer.putLong(version);
+            for (long count : counts()) {
+                buffer.putLong(count);
+            }
+            bytes = buffer.array();
+            dirty = false;
+        }
+        jedis.set(SNAPSHOT_KEY.getBytes(StandardCharsets.UTF_8), bytes);
+    }
+
+    /**
+     * Replaces the counts with the last snapshot saved to redis.
+     *
+     * @param jedis the redis connection
+     * @return true if a snapshot was found, false otherwise
+     */
+    public synchronized boolean restore(Jedis jedis) {
+        byte[] bytes = jedis.get(SNAPSHOT_KEY.getBytes(StandardCharsets.UTF_8));
+        if (bytes == null || bytes.length != 8 * (RANGE + 1)) {
+            return false;
+        }
+        clear();
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        version = buffer.getLong();
+        for (int i = 1; i <= RANGE; ++i) {
+            long count = buffer.getLong();
+            update(i, count);
+            total += count;
+        }
+        dirty = false;
+        return true;
+    }
+
+    /**
+     * Drops the snapshot saved to redis, which must be done when the quotes are rewritten
+     * outside of the stats pipeline.
+     *
+     * @param jedis the redis connection
+     */
+    public static void invalidateSnapshot(Jedis jedis) {
+        jedis.del(SNAPSHOT_KEY);
+    }
+
+    /**
+     * Loads the counts from the last snapshot, or from the leaderboard if there is none or if it
+     * is stale, and starts saving snapshots periodically and when the server stops. It must be
+     * called before the stats pipeline starts.
+     *
+     * @param leaderboard the leaderboard holding the quote of every rated player
+     */
+    public void start(Leaderboard leaderboard) {
+        Jedis jedis = new Jedis(Main.REDIS_URL);
+        long leaderboardVersion = leaderboard.version();
+        boolean restored = restore(jedis);
+        if (restored && version() == leaderboardVersion && size() == leaderboard.size(null)) {
+            Main.logger.info("Restored quote histogram of " + size() + " players");
+        } else {
+            if (restored) {
+                Main.logger.warn("Quote histogram snapshot of version " + version()
+                        + " is stale, the leaderboard is at version " + leaderboardVersion);
+            }
+            synchronized (this) {
+                clear();
+                leaderboard.forEachQuote(this::add);
+                version = leaderboardVersion;
+            }
+            Main.logger.info("Built quote histogram of " + size() + " players from the leaderboard");
+        }
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            // The connection of the periodic snapshots may be in use
+            try (Jedis shutdownJedis = new Jedis(Main.REDIS_URL)) {
+                snapshot(shutdownJedis);
+            } catch (RuntimeException e) {
+                Main.logger.error("Could not save quote histogram", e);
+            }
+        }, "quote-histogram-shutdown"));
+
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "quote-histogram");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                snapshot(jedis);
+            } catch (RuntimeException e) {
+                Main.logger.error("Could not save quote histogram", e);
+            }
+        }, SNAPSHOT_PERIOD_SECONDS, SNAPSHOT_PERIOD_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private void clear() {
+        Arrays.fill(tree, 0);
+        total = 0;
+    }
+
+    private long[] counts() {
+        long[] counts = new long[RANGE];
+        for (int i = 0; i < RANGE; ++i) {
+            counts[i] = prefix(i + 1) - prefix(i);
+        }
+        return counts;
+    }
+
+    private void update(int index, long delta) {
+        for (int i = index; i <= RANGE; i += i & -i) {
+            tree[i] += delta;
+        }
+    }
+
+    private long prefix(int index) {
+        long sum = 0;
+        for (int i = index; i > 0; i -= i & -i) {
+            sum += tree[i];
+        }
+        return sum;
+    }
+
+    private static int indexOf(int quote) {
+        return Math.max(1, Math.min(RANGE, quote - MIN_QUOTE + 1));
+    }
+
+    /**
+     * The position of a quote in the distribution.
+     */
+    public static final class Placement {
+        private final int quote;
+        private final long below;
+        private final long equal;
+        private final long above;
+        private final long total;
+        // Share of the players with this quote or a better one
+        private final double topPercent;
+
+        Placement(int quote, long below, long equal, long above, long total) {
+            this.quote = quote;
+            this.below = below;
+            this.equal = equal;
+            this.above = above;
+            this.total = total;
+            this.topPercent = total == 0 ? 100 : 100.0 * Math.max(1, above + equal) / total;
+        }
+
+        public double getTopPercent() {
+            return topPercent;
+        }
+    }
+}
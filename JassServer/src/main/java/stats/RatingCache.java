@@ -0,0 +1,149 @@
+package stats;
+
+import db.ChildListener;
+import db.Snapshot;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import model.Match;
+import stats.trueskill.GameInfo;
+import stats.trueskill.Rank;
+import stats.trueskill.RatingContext;
+
+/**
+ * In-memory snapshot of the rank of every player.
+ * <p>
+ * It listens to the userStats section of the database to load the ranks at startup and follow
+ * the changes made by other tools, and it receives the new ranks from the {@link RatingUpdater} as
+ * soon as they are computed. Reads never touch the database. The day of the last match of each
+ * player is kept with his rank so that reads return the uncertainty inflated by
+ * {@link RatingContext#inflateStandardDeviation(double, long, long)}.
+ */
+public class RatingCache implements ChildListener, RatingListener {
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final RatingContext context;
+
+    public RatingCache() {
+        this(RatingContext.DEFAULT);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param context the rating constants defining how the uncertainty of idle players grows
+     */
+    public RatingCache(RatingContext context) {
+        this.context = context;
+    }
+
+    /**
+     * Copies the ranks of the given players into the given arrays, players without statistics
+     * getting the default rank.
+     *
+     * @param scipers            the players
+     * @param means              the array receiving the means, at the index of each player
+     * @param standardDeviations the array receiving the standard deviations
+     */
+    public void fill(String[] scipers, double[] means, double[] standardDeviations) {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < scipers.length; ++i) {
+            Entry entry = entries.get(scipers[i]);
+            if (entry == null) {
+                means[i] = GameInfo.defaultInitialMean;
+                standardDeviations[i] = GameInfo.defaultInitialStandardDeviation;
+            } else {
+                means[i] = entry.mean;
+                standardDeviations[i] = context.inflateStandardDeviation(entry.standardDeviation, entry.lastPlayed, now);
+            }
+        }
+    }
+
+    /**
+     * @param sciper the player
+     * @return a copy of the cached rank of the player, or the default rank if he has none
+     */
+    public Rank getRank(String sciper) {
+        Entry entry = entries.get(sciper);
+        if (entry == null) {
+            return Rank.getDefaultRank();
+        }
+        return new Rank(entry.mean,
+                context.inflateStandardDeviation(entry.standardDeviation, entry.lastPlayed, System.currentTimeMillis()));
+    }
+
+    /**
+     * @param sciper the player
+     * @return the quote of the stored rank of the player, as displayed in his profile, or null if
+     * he has no rank
+     */
+    public Integer getQuote(String sciper) {
+        Entry entry = entries.get(sciper);
+        return entry == null ? null : Rank.computeRank(entry.mean, entry.standardDeviation);
+    }
+
+    /**
+     * Records a new rank for the given player.
+     *
+     * @param sciper     the player
+     * @param rank       his new rank
+     * @param lastPlayed the time of his last match in milliseconds, 0 if there was none
+     */
+    public void put(String sciper, Rank rank, long lastPlayed) {
+        entries.put(sciper, new Entry(rank.getMean(), rank.getStandardDeviation(), lastPlayed));
+    }
+
+    @Override
+    public void onRatingChanged(String sciper, Rank oldRank, Rank newRank, Match.GameVariant variant) {
+        put(sciper, newRank, UserStats.getDay(System.currentTimeMillis()));
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    @Override
+    public void onChildAdded(Snapshot dataSnapshot) {
+        load(dataSnapshot);
+    }
+
+    @Override
+    public void onChildChanged(Snapshot dataSnapshot) {
+        load(dataSnapshot);
+    }
+
+    @Override
+    public void onChildRemoved(Snapshot dataSnapshot) {
+        entries.remove(dataSnapshot.getKey());
+    }
+
+    private void load(Snapshot userStats) {
+        Rank rank = userStats.child("rank").getValue(Rank.class);
+        if (rank != null) {
+            put(userStats.getKey(), rank, lastPlayedDay(userStats.child("playedByDate")));
+        }
+    }
+
+    private static long lastPlayedDay(Snapshot playedByDate) {
+        Snapshot last = null;
+        for (Snapshot bucket : playedByDate.getChildren()) {
+            last = bucket;
+        }
+        Long day = last == null ? null : last.child("key").getValue(Long.class);
+        return day == null ? 0 : day;
+    }
+
+    /**
+     * Immutable cached rank, replaced as a whole so that readers never see half an update.
+     */
+    private static final class Entry {
+        private final double mean;
+        private final double standardDeviation;
+        private final long lastPlayed;
+
+        Entry(double mean, double standardDeviation, long lastPlayed) {
+            this.mean = mean;
+            this.standardDeviation = standardDeviation;
+            this.lastPlayed = lastPlayed;
+        }
+    }
+}
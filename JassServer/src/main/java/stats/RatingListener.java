@@ -0,0 +1,20 @@
+package stats;
+
+import model.Match;
+import stats.trueskill.Rank;
+
+/**
+ * Receives the new ranks computed by the {@link RatingUpdater} after each match.
+ */
+public interface RatingListener {
+
+    /**
+     * Called once per player of a finished match, right after his new rank is computed.
+     *
+     * @param sciper  the player
+     * @param oldRank his stored rank before the match, null if he had none
+     * @param newRank his rank after the match
+     * @param variant the variant of the match
+     */
+    void onRatingChanged(String sciper, Rank oldRank, Rank newRank, Match.GameVariant variant);
+}
@@ -0,0 +1,247 @@
+package stats;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import stats.trueskill.Rank;
+import stats.trueskill.RatingContext;
+import stats.trueskill.SkillCalculator;
+
+/**
+ * Recomputes the ranks of the whole player base from a history of match outcomes.
+ * <p>
+ * The matches are sorted by time and every player is mapped to a slot of a primitive rating
+ * table. Each match is assigned a level, one more than the level of the previous match of each
+ * of its players: the matches of a level share no player, so they are updated in parallel, while
+ * the levels are processed one after the other. Every player therefore sees his matches in
+ * chronological order and the result is identical to a sequential replay. As in the live
+ * pipeline, the uncertainty of a player is inflated for the days elapsed since his previous match
+ * before each update.
+ */
+public class RatingReplayEngine {
+    // Levels smaller than this are not worth splitting between threads
+    private static final int PARALLEL_THRESHOLD = 512;
+
+    private final RatingContext context;
+    private final int parallelism;
+
+    public RatingReplayEngine(RatingContext context) {
+        this(context, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructor
+     *
+     * @param context     the rating constants used for every match
+     * @param parallelism the number of threads updating the matches of a level
+     */
+    public RatingReplayEngine(RatingContext context, int parallelism) {
+        this.context = context;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Replays the given matches, starting from the default rank for every player.
+     *
+     * @param outcomes the matches to replay, in any order
+     * @return the final ranks and quote history of every player
+     */
+    public Result replay(List<MatchOutcome> outcomes) throws InterruptedException, ExecutionException {
+        int n = outcomes.size();
+        MatchOutcome[] matches = outcomes.toArray(new MatchOutcome[n]);
+        Arrays.sort(matches, (a, b) -> Long.compare(a.time, b.time));
+
+        // Intern the players into table slots
+        Map<String, Integer> slotOf = new HashMap<>();
+        List<String> scipers = new ArrayList<>();
+        int[] slots = new int[4 * n];
+        for (int m = 0; m < n; ++m) {
+            for (int i = 0; i < 4; ++i) {
+                String sciper = matches[m].lineup[i];
+                Integer slot = slotOf.get(sciper);
+                if (slot == null) {
+                    slot = scipers.size();
+                    slotOf.put(sciper, slot);
+                    scipers.add(sciper);
+                }
+                slots[4 * m + i] = slot;
+            }
+        }
+        int players = scipers.size();
+        long[] days = new long[n];
+        for (int m = 0; m < n; ++m) {
+            days[m] = UserStats.getDay(matches[m].time);
+        }
+
+        // Level of each match and matches grouped by level
+        int[] lastLevel = new int[players];
+        int[] level = new int[n];
+        int levels = 0;
+        for (int m = 0; m < n; ++m) {
+            int l = 0;
+            for (int i = 0; i < 4; ++i) {
+                l = Math.max(l, lastLevel[slots[4 * m + i]]);
+            }
+            level[m] = l;
+            for (int i = 0; i < 4; ++i) {
+                lastLevel[slots[4 * m + i]] = l + 1;
+            }
+            levels = Math.max(levels, l + 1);
+        }
+        int[] levelStart = new int[levels + 1];
+        for (int m = 0; m < n; ++m) {
+            ++levelStart[level[m] + 1];
+        }
+        for (int l = 0; l < levels; ++l) {
+            levelStart[l + 1] += levelStart[l];
+        }
+        int[] byLevel = new int[n];
+        int[] fill = Arrays.copyOf(levelStart, levels);
+        for (int m = 0; m < n; ++m) {
+            byLevel[fill[level[m]]++] = m;
+        }
+
+        double[] means = new double[players];
+        double[] standardDeviations = new double[players];
+        Arrays.fill(means, context.getGameInfo().getInitialMean());
+        Arrays.fill(standardDeviations, context.getGameInfo().getInitialStandardDeviation());
+        int[] quotes = new int[4 * n];
+        // Day of the previous match of each player, 0 before his first one
+        long[] lastPlayed = new long[players];
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            double[] matchMeans = new double[4];
+            double[] matchStandardDeviations = new double[4];
+            for (int l = 0; l < levels; ++l) {
+                final int from = levelStart[l];
+                final int to = levelStart[l + 1];
+                if (to - from < PARALLEL_THRESHOLD || parallelism == 1) {
+                    for (int k = from; k < to; ++k) {
+                        update(byLevel[k], matches, days, slots, means, standardDeviations, lastPlayed, quotes,
+                                matchMeans, matchStandardDeviations);
+                    }
+                } else {
+                    final int chunks = parallelism * 4;
+                    pool.submit(() -> IntStream.range(0, chunks).parallel().forEach(c -> {
+                        double[] localMeans = new double[4];
+                        double[] localStandardDeviations = new double[4];
+                        int chunkFrom = from + (int) ((long) (to - from) * c / chunks);
+                        int chunkTo = from + (int) ((long) (to - from) * (c + 1) / chunks);
+                        for (int k = chunkFrom; k < chunkTo; ++k) {
+                            update(byLevel[k], matches, days, slots, means, standardDeviations, lastPlayed, quotes,
+                                    localMeans, localStandardDeviations);
+                        }
+                    })).get();
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        return new Result(matches, days, scipers, slots, means, standardDeviations, quotes);
+    }
+
+    private void update(int m, MatchOutcome[] matches, long[] days, int[] slots, double[] means,
+                        double[] standardDeviations, long[] lastPlayed, int[] quotes,
+                        double[] matchMeans, double[] matchStandardDeviations) {
+        for (int i = 0; i < 4; ++i) {
+            int slot = slots[4 * m + i];
+            matchMeans[i] = means[slot];
+            matchStandardDeviations[i] = context.inflateStandardDeviation(standardDeviations[slot],
+                    lastPlayed[slot], matches[m].time);
+            lastPlayed[slot] = days[m];
+        }
+        SkillCalculator.calculateNewRatings(context, matchMeans, matchStandardDeviations,
+                matches[m].winner, matchMeans, matchStandardDeviations);
+        for (int i = 0; i < 4; ++i) {
+            int slot = slots[4 * m + i];
+            means[slot] = matchMeans[i];
+            standardDeviations[slot] = matchStandardDeviations[i];
+            quotes[4 * m + i] = Rank.computeRank(matchMeans[i], matchStandardDeviations[i]);
+        }
+    }
+
+    /**
+     * The outcome of a finished match, as needed to update the ranks of its players.
+     */
+    public static class MatchOutcome {
+        private final long time;
+        // Members of the first team followed by members of the second team
+        private final String[] lineup;
+        private final int winner;
+
+        /**
+         * Constructor
+         *
+         * @param time   the time at the end of the match in milliseconds
+         * @param lineup the scipers of the two players of the first team then of the second team
+         * @param winner 0 if the first team won, 1 otherwise
+         */
+        public MatchOutcome(long time, String[] lineup, int winner) {
+            if (lineup.length != 4) {
+                throw new IllegalArgumentException("A match outcome needs exactly four players");
+            }
+            this.time = time;
+            this.lineup = lineup.clone();
+            this.winner = winner;
+        }
+    }
+
+    /**
+     * The ranks and quote histories obtained after a replay.
+     */
+    public static class Result {
+        private final Map<String, Rank> ranks;
+        private final Map<String, List<Tuple2<Long, Integer>>> quoteByDate;
+
+        private Result(MatchOutcome[] matches, long[] days, List<String> scipers, int[] slots, double[] means,
+                       double[] standardDeviations, int[] quotes) {
+            int players = scipers.size();
+            this.ranks = new HashMap<>();
+            this.quoteByDate = new HashMap<>();
+            List<List<Tuple2<Long, Integer>>> series = new ArrayList<>(players);
+            for (int p = 0; p < players; ++p) {
+                ranks.put(scipers.get(p), new Rank(means[p], standardDeviations[p]));
+                List<Tuple2<Long, Integer>> s = new ArrayList<>();
+                s.add(new Tuple2<>(0L, 0));
+                series.add(s);
+                quoteByDate.put(scipers.get(p), s);
+            }
+            // One bucket per day, holding the quote after the last match of that day
+            for (int m = 0; m < matches.length; ++m) {
+                long day = days[m];
+                for (int i = 0; i < 4; ++i) {
+                    List<Tuple2<Long, Integer>> s = series.get(slots[4 * m + i]);
+                    Tuple2<Long, Integer> last = s.get(s.size() - 1);
+                    if (last.getKey() == day) {
+                        last.setValue(quotes[4 * m + i]);
+                    } else {
+                        s.add(new Tuple2<>(day, quotes[4 * m + i]));
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return the final rank of every replayed player
+         */
+        public Map<String, Rank> getRanks() {
+            return ranks;
+        }
+
+        /**
+         * @return the quote of every replayed player by date, in the format of
+         * {@link UserStats#getQuoteByDate()}
+         */
+        public Map<String, List<Tuple2<Long, Integer>>> getQuoteByDate() {
+            return quoteByDate;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package stats;
+
+import db.CompletionCounter;
+import db.CompletionListener;
+import db.Reference;
+
+import java.util.Arrays;
+import java.util.List;
+
+import model.Match;
+import stats.trueskill.Rank;
+import stats.trueskill.RatingContext;
+import stats.trueskill.SkillCalculator;
+import tools.metrics.Trace;
+
+/**
+ * Updates the ranks and quotes of the four players of a finished match.
+ * <p>
+ * The current ranks are fetched from the userStats section of the database, the new ranks are
+ * computed with the TrueSkill calculator and written back together with the derived quote.
+ * It runs once per match, separately from {@link UserStats#update(MatchStats)}, so that the
+ * statistics can also be recomputed offline without touching the database. The uncertainty of
+ * the loaded ranks is first inflated for the days each player spent without playing. The new
+ * ranks are then handed to the {@link RatingListener}s, which maintain the in-memory views of the
+ * ratings.
+ */
+class RatingUpdater {
+    private final Reference ref;
+    private final List<RatingListener> listeners;
+
+    /**
+     * Constructor
+     *
+     * @param root      the root of the database
+     * @param listeners the listeners notified of every new rank
+     */
+    RatingUpdater(Reference root, List<RatingListener> listeners) {
+        this.ref = root;
+        this.listeners = listeners;
+    }
+
+    /**
+     * Fetches the ranks of the players of the match and updates them using its outcome.
+     *
+     * @param ms    The results of a concluded match
+     * @param trace The trace of the processing of the match, marked as the ranks are read and computed
+     * @param done  The listener notified once the new ranks and quotes are written
+     */
+    void update(MatchStats ms, Trace trace, CompletionListener done) {
+        Match match = ms.getMatch();
+        final String[] sciper = new String[4];
+        final Rank[] playersRank = new Rank[4];
+        final Rank[] storedRanks = new Rank[4];
+        final Match.GameVariant variant = match.getGameVariant();
+        final List<Boolean> status = Arrays.asList(false, false, false, false);
+        String currentUserId = match.createdBy().getID().toString();
+        int currentTeam = match.teamOf(currentUserId);
+        int index = 0;
+
+        int winner;
+
+        if (currentTeam == 0) {
+            winner = ms.getWinnerIndex();
+        } else {
+            winner = (ms.getWinnerIndex() + 1) % 2;
+        }
+
+        sciper[0] = currentUserId;
+        getRankFromServer(currentUserId, sciper, playersRank, storedRanks, variant, winner, index, status, trace, done);
+
+        for (String id : match.teamMembers(currentTeam)) {
+            if (!id.equals(currentUserId)) {
+                ++index;
+                sciper[index] = id;
+                getRankFromServer(id, sciper, playersRank, storedRanks, variant, winner, index, status, trace, done);
+            }
+        }
+
+        for (int teamNb = 0; teamNb < variant.getNumberOfTeam(); ++teamNb) {
+            if (teamNb != currentTeam) {
+                for (String id : match.teamMembers(teamNb)) {
+                    ++index;
+                    sciper[index] = id;
+                    getRankFromServer(id, sciper, playersRank, storedRanks, variant, winner, index, status, trace, done);
+                }
+            }
+        }
+    }
+
+    private void getRankFromServer(String playerId, final String[] sciper, final Rank[] playersRank,
+                                   final Rank[] storedRanks, final Match.GameVariant variant,
+                                   final int winner, final int index, final List<Boolean> status,
+                                   final Trace trace, final CompletionListener done) {
+        ref.child("userStats").child(playerId).readOnce(dataSnapshot -> {
+            UserStats userStats = dataSnapshot.getValue(UserStats.class);
+            if (!dataSnapshot.exists()) {
+                // The StatsUpdater creates the stats of a new player, only the rank is written here
+                playersRank[index] = Rank.getDefaultRank();
+                status.set(index, true);
+            } else {
+                Rank stored = userStats.getRank();
+                storedRanks[index] = stored;
+                if (stored == null) {
+                    // The stats written after the first match of a player have no rank yet
+                    stored = Rank.getDefaultRank();
+                }
+                playersRank[index] = new Rank(stored.getMean(),
+                        RatingContext.DEFAULT.inflateStandardDeviation(stored.getStandardDeviation(),
+                                userStats.lastPlayedDay(), System.currentTimeMillis()));
+                status.set(index, true);
+            }
+
+            if (!status.contains(false)) {
+                trace.mark("ratingReads");
+                double[] means = new double[4];
+                double[] standardDeviations = new double[4];
+                for (int i = 0; i < 4; ++i) {
+                    means[i] = playersRank[i].getMean();
+                    standardDeviations[i] = playersRank[i].getStandardDeviation();
+                }
+                SkillCalculator.calculateNewRatings(RatingContext.DEFAULT, means, standardDeviations, winner,
+                        means, standardDeviations);
+                trace.mark("ratingCompute");
+
+                // A rank and a quote per player
+                CompletionCounter written = new CompletionCounter(8, done);
+                for (int i = 0; i < 4; ++i) {
+                    writeRank(sciper[i], storedRanks[i], new Rank(means[i], standardDeviations[i]), variant, written);
+                }
+                trace.mark("ratingListeners");
+            }
+        });
+    }
+
+    private void writeRank(String sciper, Rank oldRank, Rank rank, Match.GameVariant variant,
+                           CompletionListener written) {
+        for (RatingListener listener : listeners) {
+            listener.onRatingChanged(sciper, oldRank, rank, variant);
+        }
+        ref.child("userStats").child(sciper).child("rank").setValue(rank, written);
+        ref.child("players").child(sciper).child("quote").setValue(rank.computeRank(), written);
+    }
+}
@@ -1,99 +1,146 @@
 package stats;
 
+import com.google.firebase.database.utilities.encoding.CustomClassMapper;
+import db.ChildListener;
+import db.CompletionCounter;
+import db.CompletionListener;
+import db.Reference;
+import db.Snapshot;
+import db.ValueListener;
 import model.Match;
 import model.Player;
 import server.Main;
+import tools.metrics.Trace;
 
-import com.google.firebase.database.*;
-
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.List;
+import java.util.Map;
 
-public class StatsBufferListener implements ChildEventListener {
-    private DatabaseReference root = FirebaseDatabase.getInstance().getReference();
-    private DatabaseReference refStats = root.child("userStats");
+public class StatsBufferListener implements ChildListener {
+    private final Reference refStats;
 
     // Read about finished games
-    private DatabaseReference refBuffer = root.child("stats").child("buffer");
+    private final Reference refBuffer;
 
     // MatchStats archive
-    private DatabaseReference refMatchStatsArchive = root.child("stats").child("matchStatsArchive");
+    private final Reference refMatchStatsArchive;
 
     // Delete match we received matchStats of
-    private DatabaseReference refMatches = root.child("matches");
+    private final Reference refMatches;
     // Delete matchStats upon receiving matchStats in buffer
-    private DatabaseReference refMatchStats = root.child("matchStats");
+    private final Reference refMatchStats;
 
     // Update quote
-    private DatabaseReference refPlayers = root.child("players");
-
-    private DatabaseReference refMatchArchive = root.child("stats").child("matchArchive");
-
-    @Override
-    public void onChildAdded(DataSnapshot dataSnapshot, String s) {
-        MatchStats matchResult = dataSnapshot.getValue(MatchStats.class);
-        Main.logger.info("Received StatsUpdate for match " + matchResult.getMatchID());
-
-        for (Player p : matchResult.getMatch().getPlayers()) {
-            retrieveAndUpdateStats(p.getID(), matchResult);
-        }
+    private final Reference refPlayers;
 
-        refMatchStatsArchive.child(matchResult.getMatchID()).setValue(matchResult);
-        refMatches.child(matchResult.getMatchID()).addListenerForSingleValueEvent(new ValueEventListener() {
-            @Override
-            public void onDataChange(DataSnapshot dataSnapshot) {
-                Match m = dataSnapshot.getValue(Match.class);
-                m.setTime(Calendar.getInstance().getTimeInMillis());
-                refMatchArchive.child(m.getMatchID()).setValue(m);
-            }
+    private final Reference refMatchArchive;
 
-            @Override
-            public void onCancelled(DatabaseError databaseError) {
+    // Matches whose stats were already counted
+    private final ProcessedMatchLedger ledger;
 
-            }
-        });
+    private final RatingUpdater ratingUpdater;
 
-        refMatches.child(matchResult.getMatchID()).removeValue();
-        refBuffer.child(matchResult.getMatchID()).removeValue();
-        refMatchStats.child(matchResult.getMatchID()).removeValue();
+    public StatsBufferListener(Reference root, RatingListener... ratingListeners) {
+        this(root, new ProcessedMatchLedger(), ratingListeners);
     }
 
-    @Override
-    public void onChildChanged(DataSnapshot dataSnapshot, String s) {
-
+    public StatsBufferListener(Reference root, ProcessedMatchLedger ledger, RatingListener... ratingListeners) {
+        this.refStats = root.child("userStats");
+        this.refBuffer = root.child("stats").child("buffer");
+        this.refMatchStatsArchive = root.child("stats").child("matchStatsArchive");
+        this.refMatches = root.child("matches");
+        this.refMatchStats = root.child("matchStats");
+        this.refPlayers = root.child("players");
+        this.refMatchArchive = root.child("stats").child("matchArchive");
+        this.ledger = ledger;
+        this.ratingUpdater = new RatingUpdater(root, Arrays.asList(ratingListeners));
     }
 
     @Override
-    public void onChildRemoved(DataSnapshot dataSnapshot) {
+    public void onChildAdded(Snapshot dataSnapshot) {
+        String matchId = dataSnapshot.getKey();
+        Trace trace = Trace.start("statsUpdate", matchId);
+        if (ledger.isProcessed(matchId)) {
+            // Redelivered after a restart: the stats were already counted, only clean up
+            Main.logger.info("Skipping already processed StatsUpdate for match " + matchId);
+            refBuffer.child(matchId).removeValue();
+            refMatchStats.child(matchId).removeValue();
+            trace.mark("ledger").finish();
+            return;
+        }
+        trace.mark("ledger");
+
+        MatchStats matchResult = dataSnapshot.getValue(MatchStats.class);
+        trace.mark("decode");
+        Main.logger.info("Received StatsUpdate for match " + matchId);
+
+        List<Player> players = matchResult.getMatch().getPlayers();
+        // The stats of every player, their ranks and the archived stats
+        CompletionCounter written = new CompletionCounter(players.size() + 2, error -> {
+            if (error != null) {
+                Main.logger.error("Stats of match " + matchId + " were not all written, the entry stays in the buffer: "
+                        + error);
+                trace.finish();
+                return;
+            }
+            trace.mark("statsWrites");
+            // Only now can a redelivery of the entry be skipped without losing stats
+            ledger.markProcessed(matchId);
+            trace.mark("ledgerWrite");
+
+            refMatches.child(matchId).removeValue();
+            refBuffer.child(matchId).removeValue();
+            refMatchStats.child(matchId).removeValue();
+            trace.finish();
+        });
 
+        // The reads and writes below complete asynchronously, the updaters mark their own stages
+        ratingUpdater.update(matchResult, trace, written);
+        for (Player p : players) {
+            retrieveAndUpdateStats(p.getID(), matchResult, trace, written);
+        }
+        refMatchStatsArchive.child(matchId).setValue(matchResult, written);
+        refMatches.child(matchId).readOnce(snapshot -> {
+            Match m = snapshot.getValue(Match.class);
+            m.setTime(Calendar.getInstance().getTimeInMillis());
+            refMatchArchive.child(m.getMatchID()).setValue(m);
+        });
+        trace.mark("requests");
     }
 
     @Override
-    public void onChildMoved(DataSnapshot dataSnapshot, String s) {
+    public void onChildChanged(Snapshot dataSnapshot) {
 
     }
 
     @Override
-    public void onCancelled(DatabaseError databaseError) {
+    public void onChildRemoved(Snapshot dataSnapshot) {
 
     }
 
-    private void retrieveAndUpdateStats(Player.PlayerID id, MatchStats matchResult) {
+    private void retrieveAndUpdateStats(Player.PlayerID id, MatchStats matchResult, Trace trace,
+                                        CompletionListener written) {
         Main.logger.info("Updating stats of player " + id.toString() + " after match " + matchResult.getMatch().getMatchID());
-        refStats.child(id.toString())
-                .addListenerForSingleValueEvent(new StatsUpdater(id, matchResult));
+        refStats.child(id.toString()).readOnce(new StatsUpdater(id, matchResult, trace, written));
     }
 
-    private class StatsUpdater implements ValueEventListener {
+    private class StatsUpdater implements ValueListener {
         private MatchStats matchResult;
         private Player.PlayerID id;
+        private Trace trace;
+        private CompletionListener written;
 
-        StatsUpdater(Player.PlayerID id, MatchStats matchResult) {
+        StatsUpdater(Player.PlayerID id, MatchStats matchResult, Trace trace, CompletionListener written) {
             this.matchResult = matchResult;
             this.id = id;
+            this.trace = trace;
+            this.written = written;
         }
 
         @Override
-        public void onDataChange(DataSnapshot dataSnapshot) {
+        public void onValue(Snapshot dataSnapshot) {
+            trace.mark("statsRead");
             UserStats stats = null;
             if (dataSnapshot.exists()) {
                 stats = dataSnapshot.getValue(UserStats.class);
@@ -101,25 +148,18 @@ public class StatsBufferListener implements ChildEventListener {
                 stats = new UserStats(id);
             }
             stats.update(matchResult);
+            trace.mark("statsCompute");
 
             updateUserStats(stats, stats.getPlayerId().toString());
         }
         
-        @Override
-        public void onCancelled(DatabaseError databaseError) {
-
-        }
-        
+        @SuppressWarnings("unchecked")
         private void updateUserStats(UserStats stats, String id) {
-			refStats.child(id).child("playerId").setValue(stats.getPlayerId());
-			refStats.child(id).child("playedMatches").setValue(stats.getPlayedMatches());
-			refStats.child(id).child("wonMatches").setValue(stats.getWonMatches());
-			refStats.child(id).child("playedByDate").setValue(stats.getPlayedByDate());
-			refStats.child(id).child("wonByDate").setValue(stats.getWonByDate());
-			refStats.child(id).child("quoteByDate").setValue(stats.getQuoteByDate());
-			refStats.child(id).child("variants").setValue(stats.getVariants());
-			refStats.child(id).child("partners").setValue(stats.getPartners());
-			refStats.child(id).child("wonWith").setValue(stats.getWonWith());
-		}
+            // All the fields but the rank, which belongs to the RatingUpdater, in a single write so
+            // that the listeners of userStats never see half updated stats
+            Map<String, Object> fields = (Map<String, Object>) CustomClassMapper.convertToPlainJavaTypes(stats);
+            fields.remove("rank");
+            refStats.child(id).updateChildren(fields, written);
+        }
     }
 }
@@ -0,0 +1,259 @@
+package stats;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.Query;
+import com.google.firebase.database.ValueEventListener;
+import com.google.firebase.database.utilities.encoding.CustomClassMapper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import server.Main;
+import stats.trueskill.RatingContext;
+
+/**
+ * Batch tool recomputing the statistics of every player from the match archive.
+ * <p>
+ * The archived {@link MatchStats} are streamed from stats/matchStatsArchive in pages (push ids
+ * are chronological) and dated with the archival time stored in stats/matchArchive. The ranks
+ * are then replayed in time order by the {@link RatingReplayEngine}, the per-player statistics
+ * are aggregated in parallel on a fork/join pool and the result is written back to userStats in
+ * bulk.
+ */
+public class StatsRebuilder {
+    private static final int PAGE_SIZE = 500;
+    private static final int WRITE_BATCH_SIZE = 500;
+    private static final long TIMEOUT_SECONDS = 120;
+
+    private final DatabaseReference root;
+    private final DatabaseReference refMatchStatsArchive;
+    private final DatabaseReference refMatchArchive;
+    private final int parallelism;
+
+    public StatsRebuilder(DatabaseReference root) {
+        this(root, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructor
+     *
+     * @param root        the root of the database
+     * @param parallelism the number of threads used to aggregate the statistics
+     */
+    public StatsRebuilder(DatabaseReference root, int parallelism) {
+        this.root = root;
+        this.refMatchStatsArchive = root.child("stats").child("matchStatsArchive");
+        this.refMatchArchive = root.child("stats").child("matchArchive");
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Recomputes and writes back the statistics of all the players present in the archive.
+     */
+    public void run() throws InterruptedException, ExecutionException {
+        long start = System.currentTimeMillis();
+        List<ArchivedMatch> archive = readArchive();
+        Collections.sort(archive, Comparator.comparingLong(m -> m.time));
+
+        long replayStart = System.currentTimeMillis();
+        List<RatingReplayEngine.MatchOutcome> outcomes = new ArrayList<>(archive.size());
+        for (ArchivedMatch m : archive) {
+            outcomes.add(new RatingReplayEngine.MatchOutcome(m.time, m.lineup, m.stats.getWinnerIndex()));
+        }
+        RatingReplayEngine.Result ratings = new RatingReplayEngine(RatingContext.DEFAULT, parallelism).replay(outcomes);
+        Main.logger.info("Replayed ranks of " + archive.size() + " matches in "
+                + (System.currentTimeMillis() - replayStart) + " ms");
+
+        long aggregationStart = System.currentTimeMillis();
+        Map<String, UserStats> rebuilt = aggregate(archive, ratings);
+        Main.logger.info("Aggregated stats of " + rebuilt.size() + " players in "
+                + (System.currentTimeMillis() - aggregationStart) + " ms using " + parallelism + " threads");
+
+        write(rebuilt);
+        long elapsed = System.currentTimeMillis() - start;
+        Main.logger.info("Rebuilt stats of " + rebuilt.size() + " players from " + archive.size()
+                + " matches in " + elapsed + " ms (" + throughput(archive.size(), elapsed) + " matches/s)");
+    }
+
+    private List<ArchivedMatch> readArchive() throws InterruptedException {
+        List<ArchivedMatch> archive = new ArrayList<>();
+        long start = System.currentTimeMillis();
+        int skipped = 0;
+        String lastKey = null;
+        boolean lastPage = false;
+
+        while (!lastPage) {
+            Query pageQuery = lastKey == null
+                    ? refMatchStatsArchive.orderByKey().limitToFirst(PAGE_SIZE)
+                    : refMatchStatsArchive.orderByKey().startAt(lastKey).limitToFirst(PAGE_SIZE + 1);
+            List<DataSnapshot> page = new ArrayList<>();
+            for (DataSnapshot child : readOnce(pageQuery).getChildren()) {
+                if (!child.getKey().equals(lastKey)) {
+                    page.add(child);
+                }
+            }
+            lastPage = page.size() < PAGE_SIZE;
+            if (page.isEmpty()) {
+                break;
+            }
+
+            String firstKey = page.get(0).getKey();
+            lastKey = page.get(page.size() - 1).getKey();
+            Map<String, Long> times = new HashMap<>();
+            for (DataSnapshot m : readOnce(refMatchArchive.orderByKey().startAt(firstKey).endAt(lastKey)).getChildren()) {
+                Long time = m.child("time").getValue(Long.class);
+                if (time != null) {
+                    times.put(m.getKey(), time);
+                }
+            }
+
+            for (DataSnapshot child : page) {
+                MatchStats stats = child.getValue(MatchStats.class);
+                if (!isComplete(stats)) {
+                    ++skipped;
+                    continue;
+                }
+                Long time = times.get(child.getKey());
+                // Matches whose archival failed are dated with their expiration time
+                archive.add(new ArchivedMatch(stats, time != null ? time : stats.getMatch().getTime()));
+            }
+
+            Main.logger.info("Read " + archive.size() + " archived matches ("
+                    + throughput(archive.size(), System.currentTimeMillis() - start) + " matches/s)");
+        }
+
+        if (skipped > 0) {
+            Main.logger.warn("Skipped " + skipped + " archived matches without a winner or valid teams");
+        }
+        return archive;
+    }
+
+    private boolean isComplete(MatchStats stats) {
+        return stats != null
+                && stats.getMatch() != null
+                && (stats.getWinnerIndex() == 0 || stats.getWinnerIndex() == 1)
+                && stats.getMatch().teamAssignmentIsCorrect();
+    }
+
+    private Map<String, UserStats> aggregate(List<ArchivedMatch> archive, RatingReplayEngine.Result ratings)
+            throws InterruptedException, ExecutionException {
+        Map<String, List<ArchivedMatch>> byPlayer = new LinkedHashMap<>();
+        for (ArchivedMatch m : archive) {
+            for (String id : m.lineup) {
+                byPlayer.computeIfAbsent(id, k -> new ArrayList<>()).add(m);
+            }
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            return pool.submit(() -> byPlayer.entrySet().parallelStream()
+                    .collect(Collectors.toConcurrentMap(Map.Entry::getKey,
+                            e -> rebuild(e.getKey(), e.getValue(), ratings))))
+                    .get();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private UserStats rebuild(String id, List<ArchivedMatch> matches, RatingReplayEngine.Result ratings) {
+        UserStats stats = new UserStats(id, ratings.getRanks().get(id));
+        for (ArchivedMatch m : matches) {
+            stats.update(m.stats, m.time);
+        }
+        stats.setQuoteByDate(ratings.getQuoteByDate().get(id));
+        return stats;
+    }
+
+    private void write(Map<String, UserStats> rebuilt) throws InterruptedException {
+        Map<String, Object> batch = new HashMap<>();
+        int written = 0;
+        Iterator<Map.Entry<String, UserStats>> it = rebuilt.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, UserStats> e = it.next();
+            batch.put("userStats/" + e.getKey(), CustomClassMapper.convertToPlainJavaTypes(e.getValue()));
+            batch.put("players/" + e.getKey() + "/quote", e.getValue().getRank().computeRank());
+            ++written;
+            if (batch.size() >= 2 * WRITE_BATCH_SIZE || !it.hasNext()) {
+                updateOnce(batch);
+                batch.clear();
+                Main.logger.info("Wrote stats of " + written + "/" + rebuilt.size() + " players");
+            }
+        }
+    }
+
+    /**
+     * Reads the given query once, blocking until the data arrives.
+     *
+     * @param query the query to read
+     * @return the snapshot of the query
+     */
+    static DataSnapshot readOnce(Query query) throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final DataSnapshot[] result = new DataSnapshot[1];
+        query.addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(DataSnapshot dataSnapshot) {
+                result[0] = dataSnapshot;
+                latch.countDown();
+            }
+
+            @Override
+            public void onCancelled(DatabaseError databaseError) {
+                Main.logger.error("Archive read cancelled: " + databaseError.getMessage());
+                latch.countDown();
+            }
+        });
+        if (!latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS) || result[0] == null) {
+            throw new IllegalStateException("Could not read " + query.getRef());
+        }
+        return result[0];
+    }
+
+    private void updateOnce(Map<String, Object> batch) throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final DatabaseError[] error = new DatabaseError[1];
+        root.updateChildren(batch, (databaseError, databaseReference) -> {
+            error[0] = databaseError;
+            latch.countDown();
+        });
+        if (!latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS) || error[0] != null) {
+            throw new IllegalStateException("Could not write rebuilt stats"
+                    + (error[0] != null ? ": " + error[0].getMessage() : ""));
+        }
+    }
+
+    private static long throughput(int count, long elapsedMillis) {
+        return elapsedMillis == 0 ? count : count * 1000L / elapsedMillis;
+    }
+
+    /**
+     * A finished match of the archive, dated and with its players in team order.
+     */
+    private static class ArchivedMatch {
+        private final MatchStats stats;
+        private final long time;
+        // Members of Team0 followed by members of Team1
+        private final String[] lineup;
+
+        ArchivedMatch(MatchStats stats, long time) {
+            this.stats = stats;
+            this.time = time;
+            List<String> team0 = stats.getMatch().teamMembers(0);
+            List<String> team1 = stats.getMatch().teamMembers(1);
+            this.lineup = new String[]{team0.get(0), team0.get(1), team1.get(0), team1.get(1)};
+        }
+    }
+}
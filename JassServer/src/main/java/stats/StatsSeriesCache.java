@@ -0,0 +1,314 @@
+package stats;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import db.ChildListener;
+import db.Reference;
+import db.Snapshot;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache of the statistics of the players in the compact forms served to the clients.
+ * <p>
+ * The time series are delta encoded: the days are given as the number of days since the previous
+ * bucket and the quotes as the difference with the previous quote. The binary form writes the
+ * same values as varints, zigzag encoded when they can be negative. An entry is built on the
+ * first request for a player and dropped as soon as his userStats change, or when it is the least
+ * recently served one of a full cache, and each form carries an ETag derived from its content.
+ * <p>
+ * The binary series is a version byte, the first day in days since the epoch, then for each
+ * bucket the day delta, the played and won counts and the quote delta. The binary bars are a
+ * version byte followed by the variants, partners and wonWith counters, each written as its size
+ * then its labels and values, the labels as a length prefixed UTF-8 string.
+ */
+public class StatsSeriesCache implements ChildListener {
+    private static final long DAY = 24L * 3600 * 1000;
+    private static final int BINARY_VERSION = 1;
+    private static final long READ_TIMEOUT_SECONDS = 10;
+
+    private final Reference refStats;
+    private final Gson gson = new Gson();
+    // Least recently served entries first, guarded by this
+    private final LinkedHashMap<String, Encoded> entries;
+    // Reads in flight by player, guarded by this. An invalidation drops the read of the player, so
+    // that an entry built from a stale read is not cached
+    private final Map<String, Object> pendingReads = new HashMap<>();
+
+    /**
+     * Constructor
+     *
+     * @param refStats the userStats section of the database
+     * @param capacity the maximum number of players whose statistics are cached
+     */
+    public StatsSeriesCache(Reference refStats, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The capacity must be positive");
+        }
+        this.refStats = refStats;
+        this.entries = new LinkedHashMap<String, Encoded>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Encoded> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns the encoded statistics of the given player, reading them if they are not cached.
+     *
+     * @param sciper the player
+     * @return the encoded statistics, null if the player has none
+     */
+    public Encoded get(String sciper) throws InterruptedException {
+        Object read = new Object();
+        synchronized (this) {
+            Encoded cached = entries.get(sciper);
+            if (cached != null) {
+                return cached;
+            }
+            pendingReads.put(sciper, read);
+        }
+        Snapshot snapshot;
+        try {
+            snapshot = refStats.child(sciper).read(READ_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException | RuntimeException e) {
+            synchronized (this) {
+                pendingReads.remove(sciper, read);
+            }
+            throw e;
+        }
+        Encoded encoded = snapshot.exists() ? encode(sciper, snapshot.getValue(UserStats.class)) : null;
+        synchronized (this) {
+            // A concurrent read of the same player replaces this one, and caches its own result
+            if (pendingReads.remove(sciper, read) && encoded != null) {
+                entries.put(sciper, encoded);
+            }
+        }
+        return encoded;
+    }
+
+    /**
+     * Checks whether the given If-None-Match header matches the given ETag, with the weak
+     * comparison of RFC 7232.
+     *
+     * @param ifNoneMatch the header, possibly null
+     * @param etag        the strong ETag of the current representation
+     * @return true if the client already has the representation
+     */
+    public static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals("*") || candidate.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void onChildAdded(Snapshot dataSnapshot) {
+
+    }
+
+    @Override
+    public void onChildChanged(Snapshot dataSnapshot) {
+        invalidate(dataSnapshot.getKey());
+    }
+
+    @Override
+    public void onChildRemoved(Snapshot dataSnapshot) {
+        invalidate(dataSnapshot.getKey());
+    }
+
+    private synchronized void invalidate(String sciper) {
+        pendingReads.remove(sciper);
+        entries.remove(sciper);
+    }
+
+    private Encoded encode(String sciper, UserStats stats) {
+        List<Tuple2<Long, Integer>> played = stats.getPlayedByDate();
+        List<Tuple2<Long, Integer>> won = stats.getWonByDate();
+        List<Tuple2<Long, Integer>> quotes = stats.getQuoteByDate();
+        int buckets = Math.min(played.size(), Math.min(won.size(), quotes.size()));
+
+        JsonArray days = new JsonArray();
+        JsonArray playedCounts = new JsonArray();
+        JsonArray wonCounts = new JsonArray();
+        JsonArray quoteDeltas = new JsonArray();
+        VarintWriter series = new VarintWriter();
+        series.writeUnsigned(BINARY_VERSION);
+
+        long start = 0;
+        long previousDay = 0;
+        int previousQuote = 0;
+        int count = 0;
+        for (int i = 0; i < buckets; ++i) {
+            long day = played.get(i).getKey();
+            // The first bucket of a new player is a placeholder at time 0
+            if (day == 0) {
+                continue;
+            }
+            if (count == 0) {
+                start = day;
+                previousDay = day;
+                series.writeSigned(Math.floorDiv(day, DAY));
+            }
+            long dayDelta = Math.round((day - previousDay) / (double) DAY);
+            int quoteDelta = quotes.get(i).getValue() - previousQuote;
+            days.add(dayDelta);
+            playedCounts.add(played.get(i).getValue());
+            wonCounts.add(won.get(i).getValue());
+            quoteDeltas.add(quoteDelta);
+            series.writeUnsigned(dayDelta);
+            series.writeUnsigned(played.get(i).getValue());
+            series.writeUnsigned(won.get(i).getValue());
+            series.writeSigned(quoteDelta);
+            previousDay = day;
+            previousQuote = quotes.get(i).getValue();
+            ++count;
+        }
+
+        JsonObject seriesJson = new JsonObject();
+        seriesJson.addProperty("sciper", sciper);
+        seriesJson.addProperty("start", start);
+        seriesJson.add("days", days);
+        seriesJson.add("played", playedCounts);
+        seriesJson.add("won", wonCounts);
+        seriesJson.add("quote", quoteDeltas);
+
+        VarintWriter bars = new VarintWriter();
+        bars.writeUnsigned(BINARY_VERSION);
+        JsonObject barsJson = new JsonObject();
+        barsJson.addProperty("sciper", sciper);
+        barsJson.add("variants", encodeBars(stats.getVariants(), bars));
+        barsJson.add("partners", encodeBars(stats.getPartners(), bars));
+        barsJson.add("wonWith", encodeBars(stats.getWonWith(), bars));
+
+        return new Encoded(gson.toJson(seriesJson), series.toByteArray(), gson.toJson(barsJson), bars.toByteArray());
+    }
+
+    private static JsonObject encodeBars(Map<String, Integer> counters, VarintWriter binary) {
+        JsonArray labels = new JsonArray();
+        JsonArray values = new JsonArray();
+        int size = 0;
+        for (Map.Entry<String, Integer> e : counters.entrySet()) {
+            if (!e.getKey().equals("SENTINEL")) {
+                ++size;
+            }
+        }
+        binary.writeUnsigned(size);
+        for (Map.Entry<String, Integer> e : counters.entrySet()) {
+            if (e.getKey().equals("SENTINEL")) {
+                continue;
+            }
+            labels.add(e.getKey());
+            values.add(e.getValue());
+            binary.writeString(e.getKey());
+            binary.writeUnsigned(e.getValue());
+        }
+        JsonObject bars = new JsonObject();
+        bars.add("labels", labels);
+        bars.add("values", values);
+        return bars;
+    }
+
+    /**
+     * The statistics of a player in JSON and binary form, with their ETags.
+     */
+    public static final class Encoded {
+        private final String seriesJson;
+        private final byte[] seriesBinary;
+        private final String seriesHash;
+        private final String barsJson;
+        private final byte[] barsBinary;
+        private final String barsHash;
+
+        private Encoded(String seriesJson, byte[] seriesBinary, String barsJson, byte[] barsBinary) {
+            this.seriesJson = seriesJson;
+            this.seriesBinary = seriesBinary;
+            this.seriesHash = PlotMaster.hash(seriesJson);
+            this.barsJson = barsJson;
+            this.barsBinary = barsBinary;
+            this.barsHash = PlotMaster.hash(barsJson);
+        }
+
+        public String seriesJson() {
+            return seriesJson;
+        }
+
+        public byte[] seriesBinary() {
+            return seriesBinary.clone();
+        }
+
+        /**
+         * @param binary whether the ETag of the binary form is requested
+         * @return the ETag of the series
+         */
+        public String seriesEtag(boolean binary) {
+            return etag(seriesHash, binary);
+        }
+
+        public String barsJson() {
+            return barsJson;
+        }
+
+        public byte[] barsBinary() {
+            return barsBinary.clone();
+        }
+
+        /**
+         * @param binary whether the ETag of the binary form is requested
+         * @return the ETag of the bars
+         */
+        public String barsEtag(boolean binary) {
+            return etag(barsHash, binary);
+        }
+
+        private static String etag(String hash, boolean binary) {
+            return "\"" + hash + (binary ? "-b" : "") + "\"";
+        }
+    }
+
+    /**
+     * Minimal writer of LEB128 varints.
+     */
+    private static final class VarintWriter {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        void writeUnsigned(long value) {
+            while ((value & ~0x7FL) != 0) {
+                out.write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            out.write((int) value);
+        }
+
+        void writeSigned(long value) {
+            writeUnsigned((value << 1) ^ (value >> 63));
+        }
+
+        void writeString(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeUnsigned(bytes.length);
+            out.write(bytes, 0, bytes.length);
+        }
+
+        byte[] toByteArray() {
+            return out.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package stats;
+
+import stats.trueskill.MatchQualityCalculator;
+import stats.trueskill.RatingContext;
+
+/**
+ * Finds the fairest way of splitting four players into two teams.
+ * <p>
+ * The three possible splits are scored with the TrueSkill match quality computed from the
+ * {@link RatingCache}, so a suggestion costs three evaluations of a closed formula and no
+ * database access.
+ */
+public class TeamBalancer {
+    // The three splits of four players into two teams, the first player always in the first team
+    private static final int[][] SPLITS = {{0, 1, 2, 3}, {0, 2, 1, 3}, {0, 3, 1, 2}};
+
+    private final RatingCache ratingCache;
+    private final RatingContext context;
+
+    public TeamBalancer(RatingCache ratingCache) {
+        this(ratingCache, RatingContext.DEFAULT);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param ratingCache the source of the ranks of the players
+     * @param context     the rating constants used to score the splits
+     */
+    public TeamBalancer(RatingCache ratingCache, RatingContext context) {
+        this.ratingCache = ratingCache;
+        this.context = context;
+    }
+
+    /**
+     * Returns the split of the given players maximizing the match quality.
+     *
+     * @param scipers the four players, in any order
+     * @return the fairest split
+     */
+    public Split balance(String[] scipers) {
+        if (scipers.length != 4) {
+            throw new IllegalArgumentException("Teams can only be balanced for four players");
+        }
+        double[] means = new double[4];
+        double[] standardDeviations = new double[4];
+        ratingCache.fill(scipers, means, standardDeviations);
+
+        int best = 0;
+        double bestQuality = -1;
+        for (int i = 0; i < SPLITS.length; ++i) {
+            double quality = MatchQualityCalculator.matchQuality(context, means, standardDeviations, SPLITS[i]);
+            if (quality > bestQuality) {
+                bestQuality = quality;
+                best = i;
+            }
+        }
+
+        int[] lineup = SPLITS[best];
+        return new Split(new String[]{scipers[lineup[0]], scipers[lineup[1]]},
+                new String[]{scipers[lineup[2]], scipers[lineup[3]]},
+                bestQuality,
+                MatchQualityCalculator.winProbability(context, means, standardDeviations, lineup));
+    }
+
+    /**
+     * Two teams suggested by the balancer.
+     */
+    public static class Split {
+        private final String[] firstTeam;
+        private final String[] secondTeam;
+        private final double quality;
+        private final double winProbability;
+
+        private Split(String[] firstTeam, String[] secondTeam, double quality, double winProbability) {
+            this.firstTeam = firstTeam;
+            this.secondTeam = secondTeam;
+            this.quality = quality;
+            this.winProbability = winProbability;
+        }
+
+        /**
+         * @return the scipers of the members of Team0
+         */
+        public String[] getFirstTeam() {
+            return firstTeam.clone();
+        }
+
+        /**
+         * @return the scipers of the members of Team1
+         */
+        public String[] getSecondTeam() {
+            return secondTeam.clone();
+        }
+
+        public double getQuality() {
+            return quality;
+        }
+
+        /**
+         * @return the probability that the first team wins
+         */
+        public double getWinProbability() {
+            return winProbability;
+        }
+    }
+}
@@ -1,16 +1,8 @@
 package stats;
 
-import com.google.firebase.database.DataSnapshot;
-import com.google.firebase.database.DatabaseError;
-import com.google.firebase.database.DatabaseReference;
-import com.google.firebase.database.FirebaseDatabase;
-import com.google.firebase.database.ValueEventListener;
-
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collections;
-import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -19,9 +11,7 @@ import java.util.Comparator;
 
 import model.Match;
 import model.Player;
-import stats.trueskill.GameInfo;
 import stats.trueskill.Rank;
-import stats.trueskill.SkillCalculator;
 
 
 
@@ -32,6 +22,9 @@ import stats.trueskill.SkillCalculator;
  *         player. The tracked information are class fields and are documented below.
  */
 public class UserStats {
+    // Calendars are costly to create and not thread safe, getDay reuses one per thread
+    private static final ThreadLocal<Calendar> CALENDAR = ThreadLocal.withInitial(Calendar::getInstance);
+
     // The unique identifier of the player.
     private Player.PlayerID playerId;
     // How many matches he played.
@@ -58,8 +51,6 @@ public class UserStats {
     // How many matches have been won as a partner of other players.
     private Map<String, Integer> wonWith;
 
-    private int newQuote = -1;
-
     /**
      * Constructor, only start with user id.
      *
@@ -111,6 +102,15 @@ public class UserStats {
     public Integer lastQuote() {
         return quoteByDate.get(quoteByDate.size() - 1).getValue();
     }
+
+    /**
+     * @return the day of the last played match as returned by {@link #getDay(long)}, or 0 if
+     * the player never played
+     */
+    long lastPlayedDay() {
+        return playedByDate.isEmpty() ? 0 : playedByDate.get(playedByDate.size() - 1).getKey();
+    }
+
     public void setRank(Rank rank) {
         this.rank = rank;
     }
@@ -163,9 +163,18 @@ public class UserStats {
      * @param stats The results of a concluded match
      */
     public UserStats update(MatchStats stats) {
-        prepareLastBuckets(Calendar.getInstance().getTimeInMillis());
+        return update(stats, System.currentTimeMillis());
+    }
 
-        if(stats.getMatch().createdBy().getID().toString().equals(playerId.toString())) updateQuote(stats);
+    /**
+     * Updates the stored statistics (except rank) using the update issued at the end of a match,
+     * counting the match in the bucket of the given date.
+     *
+     * @param stats     The results of a concluded match
+     * @param timestamp The time at the end of the match in milliseconds
+     */
+    public UserStats update(MatchStats stats, long timestamp) {
+        prepareLastBuckets(timestamp);
 
         partners.remove("SENTINEL");
         variants.remove("SENTINEL");
@@ -174,17 +183,16 @@ public class UserStats {
         playedMatches += 1;
         int lastIndex = playedByDate.size() - 1;
         playedByDate.get(lastIndex).setValue(playedByDate.get(lastIndex).getValue() + 1);
-        Map<String, List<String>> teams = match.getTeams();
-        List<String> winners = teams.get("Team" + (stats.getWinnerIndex()));
-        List<String> losers = teams.get("Team" + ((stats.getWinnerIndex() + 1) % 2));
-        boolean isWinner = winners.contains(this.playerId.toString());
+        String ownId = playerId.toString();
+        List<String> winners = stats.winners();
+        boolean isWinner = winners.contains(ownId);
         if (isWinner) {
             wonMatches += 1;
             wonByDate.get(lastIndex).setValue(wonByDate.get(lastIndex).getValue() + 1);
         }
-        List<String> team = isWinner ? winners : losers;
+        List<String> team = isWinner ? winners : stats.losers();
         for (String id : team) {
-            if (!playerId.toString().equals(id)) {
+            if (!ownId.equals(id)) {
                 partners.put(id, getOrDefaultMap(partners, id, 0) + 1);
                 if (isWinner) {
                     wonWith.remove("SENTINEL");
@@ -209,99 +217,13 @@ public class UserStats {
         }
     }
 
-    protected void updateQuote(MatchStats ms) {
-        Map<String, List<String>> teams = ms.getMatch().getTeams();
-        final String[] sciper = new String[4];
-        final Rank[] playersRank = new Rank[4];
-        final List<Boolean> status = Arrays.asList(false, false, false, false);
-        String currentUserId = playerId.toString();
-        int index = 0;
-
-        int winner;
-
-        if(teams.get("Team0").contains(currentUserId)) {
-            winner = ms.getWinnerIndex();
-        } else {
-            winner = (ms.getWinnerIndex() + 1) % 2;
-        }
-
-        sciper[0] = currentUserId;
-        getRankFromServer(currentUserId, sciper, playersRank, winner, currentUserId, index, status);
-
-        for (List<String> team : teams.values()) {
-            if (team.contains(currentUserId)) {
-                for (String id : team) {
-                    if (!id.equals(currentUserId)) {
-                        ++index;
-                        sciper[index] = id;
-                        getRankFromServer(id, sciper, playersRank, winner, currentUserId, index, status);
-                    }
-                }
-            }
-        }
-
-        for (List<String> team : teams.values()) {
-            if (!team.contains(currentUserId)) {
-                for (String id : team) {
-                    ++index;
-                    sciper[index] = id;
-                    getRankFromServer(id, sciper, playersRank, winner, currentUserId, index, status);
-                }
-
-            }
-        }
-    }
-
-    private void getRankFromServer(String playerId, final String [] sciper, final Rank[] playersRank, final int winner, final String currentUserId, final int index, final List<Boolean> status) {
-        FirebaseDatabase.getInstance().getReference()
-                .child("userStats").child(playerId)
-                .addListenerForSingleValueEvent(new ValueEventListener() {
-                    private DatabaseReference ref = FirebaseDatabase.getInstance().getReference();
-
-                    @Override
-                    public void onDataChange(DataSnapshot dataSnapshot) {
-                        UserStats userStats = dataSnapshot.getValue(UserStats.class);
-                        if (!dataSnapshot.exists()) {
-                            if (index == 0) {
-                                ref.child("userStats").child(currentUserId).setValue(new UserStats(currentUserId, Rank.getDefaultRank()));
-                            }
-                            playersRank[index] = Rank.getDefaultRank();
-                            status.set(index, true);
-                        } else {
-                            playersRank[index] = userStats.getRank();
-                            status.set(index, true);
-                        }
-
-                        if (!status.contains(false)) {
-                            Rank newUserRank = SkillCalculator.calculateNewRatings(GameInfo.getDefaultGameInfo(), Arrays.asList(playersRank), winner);
-                            Rank newUserRank1 = SkillCalculator.calculateNewRatings(GameInfo.getDefaultGameInfo(), Arrays.asList(playersRank[1], playersRank[0], playersRank[2], playersRank[3]), winner);
-                            Rank newUserRank2 = SkillCalculator.calculateNewRatings(GameInfo.getDefaultGameInfo(), Arrays.asList(playersRank[2], playersRank[3], playersRank[0], playersRank[1]), (winner + 1) % 2);
-                            Rank newUserRank3 = SkillCalculator.calculateNewRatings(GameInfo.getDefaultGameInfo(), Arrays.asList(playersRank[3], playersRank[2], playersRank[0], playersRank[1]), (winner + 1) % 2);
-
-                            ref.child("userStats").child(currentUserId).child("rank").setValue(newUserRank);
-                            newQuote = newUserRank.computeRank();
-                            quoteByDate.add(new Tuple2<>());
-                            ref.child("players").child(currentUserId).child("quote").setValue(newUserRank.computeRank());
-
-                            ref.child("userStats").child(sciper[1]).child("rank").setValue(newUserRank1);
-                            newQuote = newUserRank.computeRank();
-                            ref.child("players").child(sciper[1]).child("quote").setValue(newUserRank1.computeRank());
-
-                            ref.child("userStats").child(sciper[2]).child("rank").setValue(newUserRank2);
-                            newQuote = newUserRank.computeRank();
-                            ref.child("players").child(sciper[2]).child("quote").setValue(newUserRank2.computeRank());
-
-                            ref.child("userStats").child(sciper[3]).child("rank").setValue(newUserRank3);
-                            newQuote = newUserRank.computeRank();
-                            ref.child("players").child(sciper[3]).child("quote").setValue(newUserRank3.computeRank());
-                        }
-                    }
-
-                    @Override
-                    public void onCancelled(DatabaseError databaseError) {
-
-                    }
-                });
+    /**
+     * Replaces the quote history, which must have one bucket per bucket of playedByDate.
+     *
+     * @param quoteByDate The quote of the player by date
+     */
+    void setQuoteByDate(List<Tuple2<Long, Integer>> quoteByDate) {
+        this.quoteByDate = new ArrayList<>(quoteByDate);
     }
 
     /**
@@ -310,7 +232,7 @@ public class UserStats {
      *
      * @param time the date
      */
-    private void prepareLastBuckets(Long time) {
+    private void prepareLastBuckets(long time) {
         long updateDate = getDay(time);
         int lastIndex = playedByDate.size() - 1;
         if (playedByDate.isEmpty() || playedByDate.get(lastIndex).getKey() != updateDate) {
@@ -331,10 +253,9 @@ public class UserStats {
      * @param timestamp The time at the end of the match in milliseconds
      * @return the same date but with time set at 23:59:59
      */
-    private long getDay(long timestamp) {
-        Date thatDay = new Date(timestamp);
-        Calendar thisDate = Calendar.getInstance();
-        thisDate.setTime(thatDay);
+    static long getDay(long timestamp) {
+        Calendar thisDate = CALENDAR.get();
+        thisDate.setTimeInMillis(timestamp);
 
         thisDate.set(Calendar.HOUR_OF_DAY, 23);
         thisDate.set(Calendar.MINUTE, 59);
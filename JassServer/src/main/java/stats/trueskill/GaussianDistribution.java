@@ -16,6 +16,41 @@ import static java.lang.Math.sqrt;
  */
 public class GaussianDistribution {
 
+    /**
+     * The ways {@link #cumulativeTo(double)} can be evaluated.
+     */
+    public enum CumulativeMode {
+        /** Chebyshev approximation of erfc, accurate to the last digits of a double. **/
+        EXACT,
+        /**
+         * Cubic Hermite interpolation of a table of 769 values spanning [-6, 6]. The maximum
+         * absolute error against {@link #EXACT} is below 1e-10, and the error shrinks with the
+         * density in the tails so that the relative error stays below 1e-6 at -6. Values
+         * outside of the table fall back to {@link #EXACT}.
+         */
+        TABLE
+    }
+
+    private static final double[] ERF_COEFFICIENTS = { -1.3026537197817094, 6.4196979235649026e-1,
+            1.9476473204185836e-2, -9.561514786808631e-3,
+            -9.46595344482036e-4, 3.66839497852761e-4, 4.2523324806907e-5,
+            -2.0278578112534e-5, -1.624290004647e-6, 1.303655835580e-6,
+            1.5626441722e-8, -8.5238095915e-8, 6.529054439e-9,
+            5.059343495e-9, -9.91364156e-10, -2.27365122e-10,
+            9.6467911e-11, 2.394038e-12, -6.886027e-12, 8.94487e-13,
+            3.13092e-13, -1.12708e-13, 3.81e-16, 7.106e-15, -1.523e-15,
+            -9.4e-17, 1.21e-16, -2.8e-17 };
+
+    private static final double TABLE_MIN = -6;
+    private static final double TABLE_MAX = 6;
+    private static final int TABLE_STEPS_PER_UNIT = 64;
+    private static final double TABLE_STEP = 1.0/TABLE_STEPS_PER_UNIT;
+    private static final int TABLE_SIZE = (int) ((TABLE_MAX - TABLE_MIN)*TABLE_STEPS_PER_UNIT) + 1;
+    private static final double[] CDF_TABLE = tabulate(false);
+    private static final double[] PDF_TABLE = tabulate(true);
+
+    private static volatile CumulativeMode cumulativeMode = CumulativeMode.EXACT;
+
     /**
      * The Gaussian representation of a flat line.
      **/
@@ -98,13 +133,66 @@ public class GaussianDistribution {
     }
 
     public static double cumulativeTo(double x, double mean, double standardDeviation) {
+        if (cumulativeMode == CumulativeMode.TABLE && x >= TABLE_MIN && x < TABLE_MAX) {
+            return tableCumulativeTo(x);
+        }
+        return exactCumulativeTo(x);
+    }
+
+    public static double cumulativeTo(double x) {
+        return cumulativeTo(x, 0, 1);
+    }
+
+    /**
+     * Selects how {@link #cumulativeTo(double)} is evaluated for the whole application.
+     *
+     * @param mode the evaluation mode
+     */
+    public static void setCumulativeMode(CumulativeMode mode) {
+        cumulativeMode = mode;
+    }
+
+    public static CumulativeMode getCumulativeMode() {
+        return cumulativeMode;
+    }
+
+    /**
+     * Evaluates the cumulative distribution with the Chebyshev approximation of the
+     * complementary error function, whatever the selected mode.
+     *
+     * @param x the location at which the normalized Gaussian is integrated
+     * @return the probability that a normalized Gaussian is below x
+     */
+    public static double exactCumulativeTo(double x) {
         double invsqrt2 = -0.707106781186547524400844362104;
         double result = errorFunctionCumulativeTo(invsqrt2*x);
         return 0.5*result;
     }
 
-    public static double cumulativeTo(double x) {
-        return cumulativeTo(x, 0, 1);
+    /**
+     * Evaluates the cumulative distribution by cubic Hermite interpolation between tabulated
+     * values and densities. Outside of the tabulated range the exact evaluation is used.
+     *
+     * @param x the location at which the normalized Gaussian is integrated
+     * @return the probability that a normalized Gaussian is below x
+     */
+    public static double tableCumulativeTo(double x) {
+        if (x < TABLE_MIN || x >= TABLE_MAX) {
+            return exactCumulativeTo(x);
+        }
+        double position = (x - TABLE_MIN) * TABLE_STEPS_PER_UNIT;
+        int i = (int) position;
+        double t = position - i;
+        double t2 = t*t;
+        double t3 = t2*t;
+
+        double h00 = 2*t3 - 3*t2 + 1;
+        double h10 = t3 - 2*t2 + t;
+        double h01 = -2*t3 + 3*t2;
+        double h11 = t3 - t2;
+
+        return h00*CDF_TABLE[i] + h10*TABLE_STEP*PDF_TABLE[i]
+                + h01*CDF_TABLE[i + 1] + h11*TABLE_STEP*PDF_TABLE[i + 1];
     }
 
     private static double errorFunctionCumulativeTo(double x) {
@@ -114,15 +202,7 @@ public class GaussianDistribution {
         double t = 2.0/(2.0 + z);
         double ty = 4*t - 2;
 
-        double[] coefficients = { -1.3026537197817094, 6.4196979235649026e-1,
-                1.9476473204185836e-2, -9.561514786808631e-3,
-                -9.46595344482036e-4, 3.66839497852761e-4, 4.2523324806907e-5,
-                -2.0278578112534e-5, -1.624290004647e-6, 1.303655835580e-6,
-                1.5626441722e-8, -8.5238095915e-8, 6.529054439e-9,
-                5.059343495e-9, -9.91364156e-10, -2.27365122e-10,
-                9.6467911e-11, 2.394038e-12, -6.886027e-12, 8.94487e-13,
-                3.13092e-13, -1.12708e-13, 3.81e-16, 7.106e-15, -1.523e-15,
-                -9.4e-17, 1.21e-16, -2.8e-17 };
+        double[] coefficients = ERF_COEFFICIENTS;
 
         int ncof = coefficients.length;
         double d = 0.0;
@@ -138,6 +218,15 @@ public class GaussianDistribution {
         return x >= 0.0 ? ans : (2.0 - ans);
     }
 
+    private static double[] tabulate(boolean density) {
+        double[] table = new double[TABLE_SIZE];
+        for (int i = 0; i < TABLE_SIZE; ++i) {
+            double x = TABLE_MIN + i*TABLE_STEP;
+            table[i] = density ? at(x) : exactCumulativeTo(x);
+        }
+        return table;
+    }
+
     private static double InverseErrorFunctionCumulativeTo(double p) {
         // From page 265 of numerical recipes
 
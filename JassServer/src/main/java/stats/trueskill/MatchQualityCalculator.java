@@ -0,0 +1,90 @@
+package stats.trueskill;
+
+import static tools.maths.MathUtils.square;
+
+/**
+ * Scores a prospective 2 versus 2 match from the ranks of its players.
+ * <p>
+ * Players 0 and 1 form the first team, players 2 and 3 the second one, as in
+ * {@link SkillCalculator#calculateNewRatings(RatingContext, double[], double[], int, double[], double[])}.
+ * The lineup variants read the players through an array of indices instead, so that every
+ * split of the same four players can be scored from a single copy of their ranks. Nothing is
+ * allocated, so the methods can be called on every request.
+ */
+public final class MatchQualityCalculator {
+    private static final int[] IDENTITY = {0, 1, 2, 3};
+
+    private MatchQualityCalculator() {
+    }
+
+    /**
+     * Computes the TrueSkill match quality, the probability of a draw relative to the probability
+     * of a draw between two perfectly equal teams.
+     *
+     * @param context            the precomputed rating constants
+     * @param means              the means of the four players
+     * @param standardDeviations the standard deviations of the four players
+     * @return the quality of the match, in (0, 1], higher values meaning fairer matches
+     */
+    public static double matchQuality(RatingContext context, double[] means, double[] standardDeviations) {
+        return matchQuality(context, means, standardDeviations, IDENTITY);
+    }
+
+    /**
+     * Computes the match quality of the given lineup.
+     *
+     * @param context            the precomputed rating constants
+     * @param means              the means of the four players
+     * @param standardDeviations the standard deviations of the four players
+     * @param lineup             the indices of the members of the first team then of the second team
+     * @return the quality of the match, in (0, 1], higher values meaning fairer matches
+     */
+    public static double matchQuality(RatingContext context, double[] means, double[] standardDeviations,
+                                      int[] lineup) {
+        double performanceVariance = 4 * context.getBetaSquared();
+        double totalVariance = performanceVariance + totalSkillVariance(standardDeviations);
+        double meanDelta = meanDelta(means, lineup);
+
+        return Math.sqrt(performanceVariance / totalVariance) * Math.exp(-square(meanDelta) / (2 * totalVariance));
+    }
+
+    /**
+     * Computes the probability that the first team wins the match, draws being ignored.
+     *
+     * @param context            the precomputed rating constants
+     * @param means              the means of the four players
+     * @param standardDeviations the standard deviations of the four players
+     * @return the probability that players 0 and 1 win
+     */
+    public static double winProbability(RatingContext context, double[] means, double[] standardDeviations) {
+        return winProbability(context, means, standardDeviations, IDENTITY);
+    }
+
+    /**
+     * Computes the probability that the first team of the given lineup wins the match.
+     *
+     * @param context            the precomputed rating constants
+     * @param means              the means of the four players
+     * @param standardDeviations the standard deviations of the four players
+     * @param lineup             the indices of the members of the first team then of the second team
+     * @return the probability that the first team wins
+     */
+    public static double winProbability(RatingContext context, double[] means, double[] standardDeviations,
+                                        int[] lineup) {
+        double totalVariance = 4 * context.getBetaSquared() + totalSkillVariance(standardDeviations);
+
+        return GaussianDistribution.cumulativeTo(meanDelta(means, lineup) / Math.sqrt(totalVariance));
+    }
+
+    private static double meanDelta(double[] means, int[] lineup) {
+        return means[lineup[0]] + means[lineup[1]] - means[lineup[2]] - means[lineup[3]];
+    }
+
+    private static double totalSkillVariance(double[] standardDeviations) {
+        double variance = 0;
+        for (int i = 0; i < 4; ++i) {
+            variance += square(standardDeviations[i]);
+        }
+        return variance;
+    }
+}
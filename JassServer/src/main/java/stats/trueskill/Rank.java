@@ -8,8 +8,8 @@ import java.util.Objects;
  * It implements the Comparable interface.
  */
 public class Rank {
-    private Double mean;
-    private Double standardDeviation;
+    private double mean;
+    private double standardDeviation;
 
     /**
      * Default constructor required for calls to DataSnapshot.getValue when using Firebase
@@ -46,15 +46,26 @@ public class Rank {
      *
      * @return The rank value
      */
-    public Double getMean() {
+    public double getMean() {
         return mean;
     }
 
-    public Double getStandardDeviation() {
+    public double getStandardDeviation() {
         return standardDeviation;
     }
 
     public int computeRank() {
+        return computeRank(mean, standardDeviation);
+    }
+
+    /**
+     * Computes the quote corresponding to the given mean and standard deviation.
+     *
+     * @param mean              the mean of the rank
+     * @param standardDeviation the standard deviation of the rank
+     * @return the quote displayed to the players
+     */
+    public static int computeRank(double mean, double standardDeviation) {
         return (int) Math.ceil((mean - 3 * standardDeviation) * 10 + 1000);
     }
 
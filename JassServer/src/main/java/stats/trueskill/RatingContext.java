@@ -0,0 +1,92 @@
+package stats.trueskill;
+
+import tools.maths.MathUtils;
+
+/**
+ * Immutable set of the values derived from a {@link GameInfo} that every rating update needs.
+ * <p>
+ * Computing the draw margin requires an inverse error function, so it is done once here instead
+ * of on each call to the {@link SkillCalculator}.
+ * <p>
+ * It also defines how the uncertainty of a rank grows while its player does not play. The growth
+ * is applied lazily, when the rank is read before a rating update or a match quality query, from
+ * the time elapsed since the last match: stored ranks never need to be aged in bulk.
+ */
+public final class RatingContext {
+
+    /**
+     * The context of the default game parameters.
+     */
+    public static final RatingContext DEFAULT = new RatingContext(GameInfo.getDefaultGameInfo());
+
+    private static final long DAY = 24L * 3600 * 1000;
+
+    private final GameInfo gameInfo;
+    private final double drawMargin;
+    private final double betaSquared;
+    private final double tauSquared;
+    private final double idleVariancePerDay;
+
+    /**
+     * Precomputes the rating constants of the given game. The variance of an idle player grows
+     * by the square of the dynamics factor per day.
+     *
+     * @param gameInfo the parameters of the game
+     */
+    public RatingContext(GameInfo gameInfo) {
+        this(gameInfo, MathUtils.square(gameInfo.getDynamicsFactor()));
+    }
+
+    /**
+     * Precomputes the rating constants of the given game.
+     *
+     * @param gameInfo           the parameters of the game
+     * @param idleVariancePerDay the variance added to a rank for every full day without match
+     */
+    public RatingContext(GameInfo gameInfo, double idleVariancePerDay) {
+        this.gameInfo = gameInfo;
+        this.drawMargin = DrawMargin.GetDrawMarginFromDrawProbability(gameInfo.getDrawProbability(), gameInfo.getBeta());
+        this.betaSquared = MathUtils.square(gameInfo.getBeta());
+        this.tauSquared = MathUtils.square(gameInfo.getDynamicsFactor());
+        this.idleVariancePerDay = idleVariancePerDay;
+    }
+
+    /**
+     * Computes the standard deviation of a rank after the given time without match. It grows
+     * with the square root of the number of full idle days and never exceeds the initial
+     * standard deviation, unless it was already larger.
+     *
+     * @param standardDeviation the stored standard deviation
+     * @param lastPlayed        the time of the last match in milliseconds, 0 if there was none
+     * @param now               the current time in milliseconds
+     * @return the inflated standard deviation
+     */
+    public double inflateStandardDeviation(double standardDeviation, long lastPlayed, long now) {
+        if (lastPlayed <= 0 || now - lastPlayed < DAY) {
+            return standardDeviation;
+        }
+        long idleDays = (now - lastPlayed) / DAY;
+        double inflated = Math.sqrt(MathUtils.square(standardDeviation) + idleDays * idleVariancePerDay);
+        return Math.max(standardDeviation, Math.min(inflated, gameInfo.getInitialStandardDeviation()));
+    }
+
+    public GameInfo getGameInfo() {
+        return gameInfo;
+    }
+
+    public double getDrawMargin() {
+        return drawMargin;
+    }
+
+    public double getBetaSquared() {
+        return betaSquared;
+    }
+
+    public double getTauSquared() {
+        return tauSquared;
+    }
+
+    public double getIdleVariancePerDay() {
+        return idleVariancePerDay;
+    }
+}
@@ -1,14 +1,10 @@
 package stats.trueskill;
 
 
-import java.util.ArrayList;
 import java.util.List;
 
 import tools.maths.MathUtils;
 
-import static stats.trueskill.SkillCalculator.OutCome.OTHERTEAM;
-import static stats.trueskill.SkillCalculator.OutCome.USERTEAM;
-
 /**
  * @author Amaury Combes
  */
@@ -23,72 +19,78 @@ public class SkillCalculator {
     }
 
     public static Rank calculateNewRatings(GameInfo gameInfo, List<Rank> players, int winner) {
-        List<Rank> team1 = new ArrayList<>();
-        team1.add(players.get(0));
-        team1.add(players.get(1));
-
-        List<Rank> team2 = new ArrayList<>();
-        team2.add(players.get(2));
-        team2.add(players.get(3));
+        return calculateNewRatings(new RatingContext(gameInfo), players, winner);
+    }
 
+    /**
+     * Computes the new rank of the first player of the list.
+     *
+     * @param context the precomputed rating constants
+     * @param players the ranks of the players, the first two forming the user team
+     * @param winner  0 if the user team won, 1 otherwise
+     * @return the updated rank of the first player
+     */
+    public static Rank calculateNewRatings(RatingContext context, List<Rank> players, int winner) {
+        double[] means = new double[4];
+        double[] standardDeviations = new double[4];
+        for (int i = 0; i < 4; ++i) {
+            means[i] = players.get(i).getMean();
+            standardDeviations[i] = players.get(i).getStandardDeviation();
+        }
 
-        OutCome whoWon = (winner == 0) ? USERTEAM : OTHERTEAM;
+        double[] newMeans = new double[4];
+        double[] newStandardDeviations = new double[4];
+        calculateNewRatings(context, means, standardDeviations, winner, newMeans, newStandardDeviations);
 
-        return updateRating(gameInfo, team1, team2, whoWon);
+        return new Rank(newMeans[0], newStandardDeviations[0]);
     }
 
-    private static Rank updateRating(GameInfo gameInfo, List<Rank> userTeam, List<Rank> otherTeam, OutCome winner) {
-        double drawMargin = DrawMargin.GetDrawMarginFromDrawProbability(gameInfo.getDrawProbability(), gameInfo.getBeta());
-        double betaSquared = MathUtils.square(gameInfo.getBeta());
-        double tauSquared = MathUtils.square(gameInfo.getDynamicsFactor());
-
-        int totalPlayers = userTeam.size() + otherTeam.size();
-
-        double userMeanSum = 0;
-        for (Rank r : userTeam) {
-            userMeanSum += r.getMean();
-        }
-        double otherTeamMeanSum = 0;
-        for (Rank r : otherTeam) {
-            otherTeamMeanSum += r.getMean();
-        }
+    /**
+     * Computes the new ratings of the four players of a match without allocating.
+     * <p>
+     * Players 0 and 1 form the first team, players 2 and 3 the second one. The results are
+     * written in the output arrays at the index of each player, which may be the input arrays.
+     *
+     * @param context               the precomputed rating constants
+     * @param means                 the current means of the players
+     * @param standardDeviations    the current standard deviations of the players
+     * @param winner                0 if the first team won, 1 otherwise
+     * @param newMeans              the array receiving the updated means
+     * @param newStandardDeviations the array receiving the updated standard deviations
+     */
+    public static void calculateNewRatings(RatingContext context,
+                                           double[] means,
+                                           double[] standardDeviations,
+                                           int winner,
+                                           double[] newMeans,
+                                           double[] newStandardDeviations) {
+        double tauSquared = context.getTauSquared();
+
+        double firstTeamMeanSum = means[0] + means[1];
+        double secondTeamMeanSum = means[2] + means[3];
 
         double totalSumStandardDeviation = 0;
-        for (Rank r : userTeam) {
-            totalSumStandardDeviation += MathUtils.square(r.getStandardDeviation());
+        for (int i = 0; i < 4; ++i) {
+            totalSumStandardDeviation += MathUtils.square(standardDeviations[i]);
         }
-        for (Rank r : otherTeam) {
-            totalSumStandardDeviation += MathUtils.square(r.getStandardDeviation());
-        }
-
-        double c = Math.sqrt(totalSumStandardDeviation + totalPlayers*betaSquared);
-
-        double winningMean = winner == OTHERTEAM ? otherTeamMeanSum : userMeanSum;
-        double losingMean = winner == OTHERTEAM ? userMeanSum : otherTeamMeanSum;
-
-        double meanDelta = winningMean - losingMean;
 
-        double v;
-        double w;
-        double rankMultiplier;
+        double c = Math.sqrt(totalSumStandardDeviation + 4 * context.getBetaSquared());
 
-        v = TruncatedGaussianCorrectionFunctions.vExceedsMargin(meanDelta, drawMargin, c);
-        w = TruncatedGaussianCorrectionFunctions.wExceedsMargin(meanDelta, drawMargin, c);
+        double meanDelta = winner == 0 ? firstTeamMeanSum - secondTeamMeanSum : secondTeamMeanSum - firstTeamMeanSum;
 
-        rankMultiplier = (winner == USERTEAM) ?  1 : -1;
+        double v = TruncatedGaussianCorrectionFunctions.vExceedsMargin(meanDelta, context.getDrawMargin(), c);
+        double w = TruncatedGaussianCorrectionFunctions.wExceedsMargin(meanDelta, context.getDrawMargin(), c);
 
-        Rank userRank = userTeam.get(0);
+        for (int i = 0; i < 4; ++i) {
+            double rankMultiplier = (i < 2) == (winner == 0) ? 1 : -1;
+            double varianceWithDynamics = MathUtils.square(standardDeviations[i]) + tauSquared;
 
-        double meanMultiplier = (MathUtils.square(userRank.getStandardDeviation()) + tauSquared)/c;
-        double stdDevMultiplier = (MathUtils.square(userRank.getStandardDeviation()) + tauSquared)/MathUtils.square(c);
+            double meanMultiplier = varianceWithDynamics / c;
+            double stdDevMultiplier = varianceWithDynamics / MathUtils.square(c);
 
-        double userMeanDelta = (rankMultiplier*meanMultiplier*v);
-        double newMean = userRank.getMean() + userMeanDelta;
-
-        double newStdDev =
-                Math.sqrt((MathUtils.square(userRank.getStandardDeviation()) + tauSquared)*(1 - w*stdDevMultiplier));
-
-        return new Rank(newMean, newStdDev);
+            newMeans[i] = means[i] + rankMultiplier * meanMultiplier * v;
+            newStandardDeviations[i] = Math.sqrt(varianceWithDynamics * (1 - w * stdDevMultiplier));
+        }
     }
 
 }
@@ -0,0 +1,91 @@
+package tools.loadtest;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import db.ChildListener;
+import db.Reference;
+import db.Snapshot;
+import server.Main;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Records the child events of some sections of the database, so that the traffic they carried
+ * can be played again offline by the {@link EventReplayer}.
+ * <p>
+ * Every event is written as one JSON line holding the milliseconds elapsed since the recording
+ * started in {@code at}, the path of the child in {@code path}, the kind of event in {@code type}
+ * (added, changed or removed) and the new value of the child in {@code value}. The file holds a
+ * single recording: it is truncated when the recorder is created, since the times of a previous
+ * run would not be relative to the same start and the children it saw would be added again.
+ */
+public class EventRecorder {
+    private final Writer out;
+    private final Gson gson = new Gson();
+    private final long startedAt = System.currentTimeMillis();
+    private long recorded;
+
+    /**
+     * Constructor
+     *
+     * @param file the file the events are written to, replacing its previous content
+     */
+    public EventRecorder(String file) throws IOException {
+        this.out = new BufferedWriter(new FileWriter(file));
+    }
+
+    /**
+     * Records the events of the children of the given section.
+     *
+     * @param root    the root of the database
+     * @param section the path of the section, such as stats/buffer
+     */
+    public void record(Reference root, String section) {
+        root.child(section).addChildListener(new ChildListener() {
+            @Override
+            public void onChildAdded(Snapshot dataSnapshot) {
+                write(section, "added", dataSnapshot);
+            }
+
+            @Override
+            public void onChildChanged(Snapshot dataSnapshot) {
+                write(section, "changed", dataSnapshot);
+            }
+
+            @Override
+            public void onChildRemoved(Snapshot dataSnapshot) {
+                write(section, "removed", dataSnapshot);
+            }
+        });
+        Main.logger.info("Recording the events of " + section);
+    }
+
+    /**
+     * @return the number of events recorded so far
+     */
+    public synchronized long recorded() {
+        return recorded;
+    }
+
+    private synchronized void write(String section, String type, Snapshot dataSnapshot) {
+        JsonObject event = new JsonObject();
+        event.addProperty("at", System.currentTimeMillis() - startedAt);
+        event.addProperty("path", section + "/" + dataSnapshot.getKey());
+        event.addProperty("type", type);
+        if (!type.equals("removed")) {
+            event.add("value", gson.toJsonTree(dataSnapshot.getValue()));
+        }
+        try {
+            out.write(gson.toJson(event));
+            out.write('\n');
+            // Flushed at every event, a crash of the server must not lose the end of the trace
+            out.flush();
+            ++recorded;
+        } catch (IOException e) {
+            Main.logger.error("Could not record event of " + section, e);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package tools.loadtest;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import db.Reference;
+import server.Main;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+
+/**
+ * Plays the events recorded by the {@link EventRecorder} against a database, keeping their
+ * spacing divided by a speed factor: at speed 10 an hour of production traffic is replayed in six
+ * minutes. Added and changed children are written with their recorded value and removed
+ * children are removed, so the listeners of the database see the recorded events again.
+ */
+public class EventReplayer {
+    private final Reference root;
+    private final String file;
+    private final double speed;
+    private final Gson gson = new Gson();
+
+    /**
+     * Constructor
+     *
+     * @param root  the root of the database the events are replayed to
+     * @param file  the file written by the recorder
+     * @param speed the factor by which the replay is faster than the recording
+     */
+    public EventReplayer(Reference root, String file, double speed) {
+        if (speed <= 0) {
+            throw new IllegalArgumentException("The speed must be positive");
+        }
+        this.root = root;
+        this.file = file;
+        this.speed = speed;
+    }
+
+    /**
+     * Replays the whole file, blocking until the last event has been written.
+     *
+     * @return the number of events replayed
+     */
+    public long run() throws IOException, InterruptedException {
+        long start = System.currentTimeMillis();
+        long replayed = 0;
+        long late = 0;
+        try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                JsonObject event = gson.fromJson(line, JsonObject.class);
+                long due = start + (long) (event.get("at").getAsLong() / speed);
+                long wait = due - System.currentTimeMillis();
+                if (wait > 0) {
+                    Thread.sleep(wait);
+                } else if (wait < 0) {
+                    ++late;
+                }
+                apply(event);
+                ++replayed;
+            }
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        Main.logger.info("Replayed " + replayed + " events in " + elapsed + " ms at speed " + speed
+                + ", " + late + " of them behind schedule");
+        return replayed;
+    }
+
+    private void apply(JsonObject event) {
+        Reference ref = root.child(event.get("path").getAsString());
+        String type = event.get("type").getAsString();
+        if (type.equals("removed")) {
+            ref.removeValue();
+        } else {
+            // Numbers come back as doubles, the database stores the integral ones as longs
+            ref.setValue(gson.fromJson(event.get("value"), Object.class));
+        }
+    }
+}
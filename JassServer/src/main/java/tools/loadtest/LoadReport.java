@@ -0,0 +1,129 @@
+package tools.loadtest;
+
+import tools.metrics.LatencyHistogram;
+import tools.metrics.Metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Summary of a load test: the throughput and the latency quantiles of every subsystem, read from
+ * the histograms of {@link Metrics}, and the backlogs of the queues, sampled during the run.
+ */
+public class LoadReport {
+    private static final long SAMPLE_PERIOD_MILLIS = 100;
+
+    // Title of each subsystem and name of the histograms measuring it
+    private static final String[][] SUBSYSTEMS = {
+            {"Listeners", "firebase_event_duration_seconds"},
+            {"Pipelines", "trace_duration_seconds"},
+            {"Event delivery and timers lag", "timer_lag_seconds"},
+            {"FCM", "fcm_send_duration_seconds"},
+            {"Plot queue wait", "plot_queue_wait_seconds"},
+            {"Plot rendering", "plot_render_duration_seconds"},
+            {"Redis", "redis_command_duration_seconds"},
+            {"HTTP", "http_request_duration_seconds"},
+    };
+
+    private final Map<String, Backlog> backlogs = new LinkedHashMap<>();
+    private final ScheduledExecutorService sampler;
+    private long startedAt;
+
+    public LoadReport() {
+        this.sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "load-report");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Adds a queue whose size is sampled during the run. Must be called before {@link #start()}.
+     *
+     * @param name the name of the queue in the report
+     * @param size the supplier of the current size of the queue
+     */
+    public void backlog(String name, LongSupplier size) {
+        backlogs.put(name, new Backlog(size));
+    }
+
+    /**
+     * Starts the measurement period and the sampling of the backlogs.
+     */
+    public void start() {
+        startedAt = System.currentTimeMillis();
+        sampler.scheduleAtFixedRate(() -> {
+            for (Backlog b : backlogs.values()) {
+                b.sample();
+            }
+        }, 0, SAMPLE_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the sampling and renders the report.
+     *
+     * @return the report, one line per histogram and per backlog
+     */
+    public String finish() {
+        sampler.shutdownNow();
+        double seconds = Math.max(1, System.currentTimeMillis() - startedAt) / 1000.0;
+        StringBuilder out = new StringBuilder();
+        out.append(String.format("Load report over %.1f s%n", seconds));
+        for (String[] subsystem : SUBSYSTEMS) {
+            Map<String, LatencyHistogram> histograms = Metrics.histograms(subsystem[1]);
+            if (histograms.isEmpty()) {
+                continue;
+            }
+            out.append(subsystem[0]).append(String.format("%n"));
+            for (Map.Entry<String, LatencyHistogram> e : histograms.entrySet()) {
+                LatencyHistogram h = e.getValue();
+                if (h.count() == 0) {
+                    continue;
+                }
+                out.append(String.format("  %-50s %8d %9.1f/s  p50 %9s  p99 %9s  p99.9 %9s  max %9s%n",
+                        e.getKey().isEmpty() ? "-" : e.getKey(), h.count(), h.count() / seconds,
+                        millis(h.quantileMicros(0.5)), millis(h.quantileMicros(0.99)),
+                        millis(h.quantileMicros(0.999)), millis(h.maxMicros())));
+            }
+        }
+        if (!backlogs.isEmpty()) {
+            out.append(String.format("Backlogs%n"));
+            for (Map.Entry<String, Backlog> e : backlogs.entrySet()) {
+                Backlog b = e.getValue();
+                out.append(String.format("  %-50s max %8d  mean %10.1f  last %8d%n",
+                        e.getKey(), b.max, b.samples == 0 ? 0.0 : (double) b.sum / b.samples, b.last));
+            }
+        }
+        return out.toString();
+    }
+
+    private static String millis(long micros) {
+        return String.format("%.2f ms", micros / 1000.0);
+    }
+
+    /**
+     * The samples of the size of a queue, only touched by the sampler thread until the end.
+     */
+    private static final class Backlog {
+        private final LongSupplier size;
+        private long max;
+        private long sum;
+        private long samples;
+        private long last;
+
+        Backlog(LongSupplier size) {
+            this.size = size;
+        }
+
+        void sample() {
+            last = size.getAsLong();
+            max = Math.max(max, last);
+            sum += last;
+            ++samples;
+        }
+    }
+}
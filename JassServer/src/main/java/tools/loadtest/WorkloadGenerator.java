@@ -0,0 +1,349 @@
+package tools.loadtest;
+
+import com.google.gson.JsonObject;
+import com.mashape.unirest.http.HttpResponse;
+import com.mashape.unirest.http.Unirest;
+import com.mashape.unirest.http.exceptions.UnirestException;
+import db.Reference;
+import model.GPSPoint;
+import model.Match;
+import model.Player;
+import server.Main;
+import stats.MatchStats;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Simulates the traffic of the application against the database and the HTTP endpoints of the
+ * server, so that the real listeners can be loaded offline.
+ * <p>
+ * Players register at a fixed rate: they are written to the players section and their token is
+ * sent to /register. Matches are then created at a fixed rate by idle players, somewhere around
+ * the campus. Idle players join them one after the other and some leave again, until the match
+ * is full. A full match gets its teams, is played for a while, and its stats are written to
+ * matchStats and stats/buffer with the scores and melds of every round, as the application does.
+ * A fraction of the matches is abandoned before being full and left to expire.
+ * <p>
+ * All the simulation runs on a single thread, so its state needs no locking.
+ */
+public class WorkloadGenerator {
+    private static final long FIRST_SCIPER = 100000;
+    // Around the Satellite, as the default location of the application
+    private static final double CAMPUS_LATITUDE = 46.520450;
+    private static final double CAMPUS_LONGITUDE = 6.567737;
+    private static final double CAMPUS_RADIUS_DEGREES = 0.02;
+    private static final int CARD_POINTS_PER_ROUND = 157;
+    private static final Match.Meld[] MELDS = {Match.Meld.MARRIAGE, Match.Meld.THREE_CARDS, Match.Meld.FIFTY,
+            Match.Meld.HUNDRED, Match.Meld.FOUR_NINE, Match.Meld.FOUR_JACKS};
+
+    private final Reference root;
+    private final String registerUrl;
+    private final Settings settings;
+    private final ScheduledExecutorService simulation;
+    private final Random random = new Random(42);
+
+    private final List<Player> idle = new ArrayList<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile boolean stopping;
+    private long nextSciper = FIRST_SCIPER;
+
+    // Counts of the simulated actions, by name
+    private final Map<String, AtomicInteger> actions = new HashMap<>();
+
+    /**
+     * Constructor
+     *
+     * @param root        the root of the database the application writes to
+     * @param registerUrl the URL of the /register endpoint of the server
+     * @param settings    the rates of the workload
+     */
+    public WorkloadGenerator(Reference root, String registerUrl, Settings settings) {
+        this.root = root;
+        this.registerUrl = registerUrl;
+        this.settings = settings;
+        this.simulation = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "workload");
+            t.setDaemon(true);
+            return t;
+        });
+        for (String action : new String[]{"registered", "created", "joined", "left", "full", "finished",
+                "abandoned", "starved"}) {
+            actions.put(action, new AtomicInteger());
+        }
+    }
+
+    /**
+     * Starts registering players and creating matches.
+     */
+    public void start() {
+        Main.logger.info("Starting workload: " + settings);
+        simulation.scheduleAtFixedRate(this::registerPlayer, 0, periodMicros(settings.registrationsPerSecond),
+                TimeUnit.MICROSECONDS);
+        simulation.scheduleAtFixedRate(this::createMatch, 0, periodMicros(settings.matchesPerSecond),
+                TimeUnit.MICROSECONDS);
+    }
+
+    /**
+     * Stops the registrations and the creation of matches, the matches in progress go on.
+     */
+    public void stop() {
+        stopping = true;
+    }
+
+    /**
+     * Waits until every match created has been played or abandoned.
+     *
+     * @param timeout the maximum time to wait
+     * @param unit    the unit of the timeout
+     * @return true if no match is in progress, false if the timeout elapsed
+     */
+    public boolean awaitMatches(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (inFlight.get() > 0) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of times each simulated action happened
+     */
+    public String summary() {
+        StringBuilder out = new StringBuilder("Workload:");
+        for (String action : new String[]{"registered", "created", "joined", "left", "full", "finished",
+                "abandoned", "starved"}) {
+            out.append(' ').append(action).append(' ').append(actions.get(action).get());
+        }
+        return out.append(", in progress ").append(inFlight.get()).toString();
+    }
+
+    private void registerPlayer() {
+        if (stopping || nextSciper - FIRST_SCIPER >= settings.players) {
+            return;
+        }
+        long sciper = nextSciper++;
+        Player player = new Player(new Player.PlayerID(sciper), "Last" + sciper, "First" + sciper,
+                800 + random.nextInt(400));
+        root.child("players").child(Long.toString(sciper)).setValue(player);
+
+        JsonObject body = new JsonObject();
+        body.addProperty("sciper", Long.toString(sciper));
+        body.addProperty("token", "token-" + sciper);
+        try {
+            HttpResponse<String> res = Unirest.post(registerUrl).body(body.toString()).asString();
+            if (res.getStatus() != 200) {
+                Main.logger.warn("Registration of " + sciper + " answered " + res.getStatus());
+            }
+        } catch (UnirestException e) {
+            Main.logger.error("Could not register " + sciper, e);
+        }
+        idle.add(player);
+        count("registered");
+    }
+
+    private void createMatch() {
+        if (stopping) {
+            return;
+        }
+        if (idle.isEmpty()) {
+            count("starved");
+            return;
+        }
+        Reference ref = root.child("matches").push();
+        boolean abandoned = random.nextDouble() < settings.abandonProbability;
+        Match.GameVariant variant = random.nextInt(3) > 0
+                ? Match.GameVariant.CHIBRE
+                : Match.GameVariant.values()[random.nextInt(Match.GameVariant.values().length)];
+        Match.Builder builder = new Match.Builder()
+                .setMatchID(ref.getKey())
+                .setVariant(variant)
+                .setDescription("Load test")
+                .setPrivacy(random.nextInt(10) == 0)
+                .setLocation(new GPSPoint(
+                        CAMPUS_LATITUDE + (random.nextDouble() * 2 - 1) * CAMPUS_RADIUS_DEGREES,
+                        CAMPUS_LONGITUDE + (random.nextDouble() * 2 - 1) * CAMPUS_RADIUS_DEGREES));
+        if (abandoned) {
+            builder.setTime(System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(settings.abandonedLifetimeSeconds));
+        }
+        try {
+            builder.addPlayer(takeIdle());
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("An empty match cannot hold the player already", e);
+        }
+        Match match = builder.build();
+        ref.setValue(match);
+        inFlight.incrementAndGet();
+        count("created");
+        scheduleStep(new SimulatedMatch(ref, match, abandoned));
+    }
+
+    private void scheduleStep(SimulatedMatch sim) {
+        long delay = (long) (settings.joinSeconds * 1000 * (0.5 + random.nextDouble()));
+        simulation.schedule(() -> step(sim), delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Makes a player join or leave the match, and starts playing it once it is full.
+     */
+    private void step(SimulatedMatch sim) {
+        List<Player> players = sim.match.getPlayers();
+        long untilExpiration = sim.match.getTime() - System.currentTimeMillis();
+        if (sim.abandoned && (players.size() >= sim.match.getMaxPlayerNumber() - 1 || untilExpiration <= 0)) {
+            // Nobody else joins, the match expires with its players waiting
+            simulation.schedule(() -> release(sim), Math.max(0, untilExpiration), TimeUnit.MILLISECONDS);
+            inFlight.decrementAndGet();
+            count("abandoned");
+            return;
+        }
+        if (players.size() > 1 && random.nextDouble() < settings.leaveProbability) {
+            Player leaving = players.get(1 + random.nextInt(players.size() - 1));
+            sim.match.removePlayerById(leaving.getID());
+            idle.add(leaving);
+            count("left");
+        } else if (!idle.isEmpty()) {
+            try {
+                sim.match.addPlayer(takeIdle());
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException("An idle player cannot be in a match", e);
+            }
+            count("joined");
+        }
+
+        if (sim.match.matchFull()) {
+            for (int i = 0; i < players.size(); ++i) {
+                sim.match.setTeam(i / 2, players.get(i).getID());
+            }
+            sim.match.setStatus(Match.MatchStatus.ACTIVE);
+            sim.ref.setValue(sim.match);
+            count("full");
+            long playMillis = (long) (settings.playSeconds * 1000 * (0.5 + random.nextDouble()));
+            simulation.schedule(() -> finish(sim), playMillis, TimeUnit.MILLISECONDS);
+        } else {
+            sim.ref.setValue(sim.match);
+            scheduleStep(sim);
+        }
+    }
+
+    /**
+     * Plays the match round by round and writes its stats where the application does.
+     */
+    private void finish(SimulatedMatch sim) {
+        MatchStats stats = new MatchStats(sim.match);
+        while (!stats.goalHasBeenReached()) {
+            int team = random.nextInt(2);
+            if (random.nextInt(4) == 0) {
+                stats.setMeld(team, MELDS[random.nextInt(MELDS.length)]);
+            }
+            int cardPoints = random.nextInt(CARD_POINTS_PER_ROUND + 1);
+            stats.setScore(team, cardPoints);
+            stats.setScore(1 - team, CARD_POINTS_PER_ROUND - cardPoints);
+            stats.finishRound();
+        }
+        String matchId = sim.match.getMatchID();
+        root.child("matchStats").child(matchId).setValue(stats);
+        root.child("stats").child("buffer").child(matchId).setValue(stats);
+        release(sim);
+        inFlight.decrementAndGet();
+        count("finished");
+    }
+
+    private void release(SimulatedMatch sim) {
+        idle.addAll(sim.match.getPlayers());
+    }
+
+    private Player takeIdle() {
+        // Swap with the last one, the order of the idle players does not matter
+        int i = random.nextInt(idle.size());
+        Player player = idle.get(i);
+        idle.set(i, idle.get(idle.size() - 1));
+        idle.remove(idle.size() - 1);
+        return player;
+    }
+
+    private void count(String action) {
+        actions.get(action).incrementAndGet();
+    }
+
+    private static long periodMicros(double perSecond) {
+        return Math.max(1, (long) (1e6 / perSecond));
+    }
+
+    /**
+     * A match driven by the simulation, with the reference it is written to.
+     */
+    private static final class SimulatedMatch {
+        private final Reference ref;
+        private final Match match;
+        private final boolean abandoned;
+
+        SimulatedMatch(Reference ref, Match match, boolean abandoned) {
+            this.ref = ref;
+            this.match = match;
+            this.abandoned = abandoned;
+        }
+    }
+
+    /**
+     * The rates and delays of the simulated traffic.
+     */
+    public static final class Settings {
+        private final int players;
+        private final double registrationsPerSecond;
+        private final double matchesPerSecond;
+        private final double joinSeconds;
+        private final double playSeconds;
+        private final double leaveProbability;
+        private final double abandonProbability;
+        private final long abandonedLifetimeSeconds;
+
+        /**
+         * Constructor
+         *
+         * @param players                  the number of players registered
+         * @param registrationsPerSecond   the rate of the registrations
+         * @param matchesPerSecond         the rate of creation of the matches
+         * @param joinSeconds              the mean time between two players joining a match
+         * @param playSeconds              the mean time a full match is played
+         * @param leaveProbability         the probability that a player leaves instead of one joining
+         * @param abandonProbability       the probability that a match is never full
+         * @param abandonedLifetimeSeconds the time an abandoned match waits before expiring
+         */
+        public Settings(int players, double registrationsPerSecond, double matchesPerSecond, double joinSeconds,
+                        double playSeconds, double leaveProbability, double abandonProbability,
+                        long abandonedLifetimeSeconds) {
+            if (players < 4 || registrationsPerSecond <= 0 || matchesPerSecond <= 0) {
+                throw new IllegalArgumentException("A workload needs at least four players and positive rates");
+            }
+            if (leaveProbability < 0 || leaveProbability >= 1 || abandonProbability < 0 || abandonProbability > 1) {
+                throw new IllegalArgumentException("Invalid probability");
+            }
+            this.players = players;
+            this.registrationsPerSecond = registrationsPerSecond;
+            this.matchesPerSecond = matchesPerSecond;
+            this.joinSeconds = joinSeconds;
+            this.playSeconds = playSeconds;
+            this.leaveProbability = leaveProbability;
+            this.abandonProbability = abandonProbability;
+            this.abandonedLifetimeSeconds = abandonedLifetimeSeconds;
+        }
+
+        @Override
+        public String toString() {
+            return players + " players registering at " + registrationsPerSecond + "/s, "
+                    + matchesPerSecond + " matches/s, a join every " + joinSeconds + " s, played "
+                    + playSeconds + " s, leave probability " + leaveProbability + ", abandon probability "
+                    + abandonProbability + " with expiration after " + abandonedLifetimeSeconds + " s";
+        }
+    }
+}
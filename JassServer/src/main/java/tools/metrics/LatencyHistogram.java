@@ -0,0 +1,178 @@
+package tools.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Histogram of durations in microseconds with log-linear buckets.
+ * <p>
+ * Every power of two is split into {@link #SUB_BUCKETS} linear buckets, as in an HDR histogram
+ * with two bits of precision: a quantile read from it is at most 25% above the real value, from
+ * one microsecond to {@link #MAX_MICROS}. Longer durations are only counted in the overflow
+ * bucket, which is exposed as +Inf. Recording a value updates a bucket, the count and the sum,
+ * which are adders, and the maximum, which is an accumulator, without allocation or locking.
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 27;
+    /**
+     * The longest duration distinguished by the buckets, a little more than two minutes.
+     */
+    public static final long MAX_MICROS = (1L << MAX_EXPONENT) - 1;
+    // The finite buckets, followed by the overflow bucket
+    static final int BUCKET_COUNT = index(MAX_MICROS) + 2;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKET_COUNT];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sumMicros = new LongAdder();
+    private final LongAccumulator maxMicros = new LongAccumulator(Math::max, 0);
+
+    LatencyHistogram() {
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records a duration given in nanoseconds, as measured with {@link System#nanoTime()}.
+     */
+    public void recordNanos(long nanos) {
+        recordMicros(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    /**
+     * Records a duration given in milliseconds.
+     */
+    public void recordMillis(long millis) {
+        recordMicros(TimeUnit.MILLISECONDS.toMicros(millis));
+    }
+
+    /**
+     * Records a duration given in microseconds. Negative durations are counted as zero.
+     */
+    public void recordMicros(long micros) {
+        long value = Math.max(0, micros);
+        buckets[value > MAX_MICROS ? BUCKET_COUNT - 1 : index(value)].increment();
+        count.increment();
+        sumMicros.add(value);
+        maxMicros.accumulate(value);
+    }
+
+    /**
+     * Runs the given call and records its duration, even if it throws.
+     *
+     * @param call the call to time
+     * @return the result of the call
+     */
+    public <T> T time(Supplier<T> call) {
+        long start = System.nanoTime();
+        try {
+            return call.get();
+        } finally {
+            recordNanos(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Runs the given call and records its duration, even if it throws.
+     *
+     * @param call the call to time
+     */
+    public void time(Runnable call) {
+        long start = System.nanoTime();
+        try {
+            call.run();
+        } finally {
+            recordNanos(System.nanoTime() - start);
+        }
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    public long sumMicros() {
+        return sumMicros.sum();
+    }
+
+    public long maxMicros() {
+        return maxMicros.get();
+    }
+
+    /**
+     * @return the mean of the recorded durations in microseconds, 0 if there is none
+     */
+    public long meanMicros() {
+        long n = count.sum();
+        return n == 0 ? 0 : sumMicros.sum() / n;
+    }
+
+    /**
+     * Estimates a quantile of the recorded durations.
+     *
+     * @param quantile the quantile, between 0 and 1
+     * @return the upper bound in microseconds of the bucket holding the quantile, 0 if nothing
+     * was recorded
+     */
+    public long quantileMicros(double quantile) {
+        long[] counts = counts();
+        long total = 0;
+        for (long c : counts) {
+            total += c;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length; ++i) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), maxMicros.get());
+            }
+        }
+        return maxMicros.get();
+    }
+
+    /**
+     * @return a copy of the count of every bucket
+     */
+    long[] counts() {
+        long[] counts = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            counts[i] = buckets[i].sum();
+        }
+        return counts;
+    }
+
+    /**
+     * @return the index of the bucket of the given duration
+     */
+    static int index(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @return the exclusive upper bound in microseconds of the given bucket, Long.MAX_VALUE for
+     * the overflow bucket
+     */
+    static long upperBound(int index) {
+        if (index == BUCKET_COUNT - 1) {
+            return Long.MAX_VALUE;
+        }
+        if (index < SUB_BUCKETS) {
+            return index + 1;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int subBucket = index % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS);
+    }
+}
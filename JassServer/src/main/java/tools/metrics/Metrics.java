@@ -0,0 +1,240 @@
+package tools.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.DoubleSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Registry of the metrics of the server, exposed in the Prometheus text format by
+ * {@link #scrape()}.
+ * <p>
+ * A metric is identified by its name and its labels, given as alternating names and values.
+ * Registering the same metric twice returns the existing one, so hot paths should keep the metric
+ * in a field rather than look it up on every use. Durations are exposed in seconds, with one
+ * bucket per power of two of microseconds.
+ */
+public final class Metrics {
+    private static final ConcurrentMap<String, Family> families = new ConcurrentSkipListMap<>();
+
+    private Metrics() {
+    }
+
+    /**
+     * Returns the counter with the given name and labels, creating it if needed.
+     *
+     * @param name   the name of the counter, ending in _total by convention
+     * @param help   the description of the counter
+     * @param labels the label names and values, alternating
+     * @return the counter
+     */
+    public static Counter counter(String name, String help, String... labels) {
+        return (Counter) family(name, help, Type.COUNTER).metrics
+                .computeIfAbsent(labelText(labels), l -> new Counter());
+    }
+
+    /**
+     * Returns the histogram with the given name and labels, creating it if needed.
+     *
+     * @param name   the name of the histogram, ending in _seconds by convention
+     * @param help   the description of the histogram
+     * @param labels the label names and values, alternating
+     * @return the histogram
+     */
+    public static LatencyHistogram histogram(String name, String help, String... labels) {
+        return (LatencyHistogram) family(name, help, Type.HISTOGRAM).metrics
+                .computeIfAbsent(labelText(labels), l -> new LatencyHistogram());
+    }
+
+    /**
+     * Returns the histograms registered under the given name, for reports that read them
+     * directly rather than through {@link #scrape()}.
+     *
+     * @param name the name of the histograms
+     * @return the histograms by label text, such as {listener="Namer",event="added"}, sorted
+     */
+    public static Map<String, LatencyHistogram> histograms(String name) {
+        Map<String, LatencyHistogram> histograms = new TreeMap<>();
+        Family family = families.get(name);
+        if (family != null && family.type == Type.HISTOGRAM) {
+            for (Map.Entry<String, Object> e : family.metrics.entrySet()) {
+                histograms.put(e.getKey(), (LatencyHistogram) e.getValue());
+            }
+        }
+        return histograms;
+    }
+
+    /**
+     * Registers a gauge whose value is read at every scrape. Registering it again replaces the
+     * previous supplier.
+     *
+     * @param name   the name of the gauge
+     * @param help   the description of the gauge
+     * @param value  the supplier of the current value
+     * @param labels the label names and values, alternating
+     */
+    public static void gauge(String name, String help, DoubleSupplier value, String... labels) {
+        family(name, help, Type.GAUGE).metrics.put(labelText(labels), value);
+    }
+
+    /**
+     * Returns the histogram of the durations of a redis command, to be kept in a field and used
+     * with {@link LatencyHistogram#time(Supplier)}.
+     *
+     * @param command the name of the command, used as label
+     * @return the histogram of the durations of the command
+     */
+    public static LatencyHistogram redis(String command) {
+        return histogram("redis_command_duration_seconds", "Duration of the redis commands", "command", command);
+    }
+
+    /**
+     * Returns the histogram of the delay between the time a timer was due and the time it ran.
+     *
+     * @param timer the name of the timer, used as label
+     * @return the histogram of the lag of the timer
+     */
+    public static LatencyHistogram timerLag(String timer) {
+        return histogram("timer_lag_seconds", "Delay between the due time of the timers and their execution",
+                "timer", timer);
+    }
+
+    /**
+     * @return every registered metric in the Prometheus text exposition format
+     */
+    public static String scrape() {
+        StringBuilder out = new StringBuilder();
+        for (Family family : families.values()) {
+            out.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(family.name).append(' ').append(family.type.text).append('\n');
+            for (Map.Entry<String, Object> e : family.metrics.entrySet()) {
+                String labels = e.getKey();
+                Object metric = e.getValue();
+                switch (family.type) {
+                    case COUNTER:
+                        sample(out, family.name, labels, ((Counter) metric).value());
+                        break;
+                    case GAUGE:
+                        sample(out, family.name, labels, ((DoubleSupplier) metric).getAsDouble());
+                        break;
+                    case HISTOGRAM:
+                        histogram(out, family.name, labels, (LatencyHistogram) metric);
+                        break;
+                }
+            }
+        }
+        return out.toString();
+    }
+
+    private static void histogram(StringBuilder out, String name, String labels, LatencyHistogram histogram) {
+        long[] counts = histogram.counts();
+        long cumulative = 0;
+        for (int i = 0; i < counts.length; ++i) {
+            cumulative += counts[i];
+            long bound = LatencyHistogram.upperBound(i);
+            // Only the powers of two are exposed, the finer buckets are kept for the quantiles. The
+            // bound of the overflow bucket is not one, its durations only appear in +Inf
+            if (Long.bitCount(bound) == 1) {
+                sample(out, name + "_bucket", withLabel(labels, "le", Double.toString(bound / 1e6)), cumulative);
+            }
+        }
+        // The count is read last, so that it is never smaller than the buckets
+        long count = Math.max(cumulative, histogram.count());
+        sample(out, name + "_bucket", withLabel(labels, "le", "+Inf"), count);
+        sample(out, name + "_sum", labels, histogram.sumMicros() / 1e6);
+        sample(out, name + "_count", labels, count);
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, long value) {
+        out.append(name).append(labels).append(' ').append(value).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, double value) {
+        out.append(name).append(labels).append(' ');
+        if (Double.isNaN(value)) {
+            out.append("NaN");
+        } else if (Double.isInfinite(value)) {
+            out.append(value > 0 ? "+Inf" : "-Inf");
+        } else {
+            out.append(value);
+        }
+        out.append('\n');
+    }
+
+    private static Family family(String name, String help, Type type) {
+        Family family = families.computeIfAbsent(name, n -> new Family(name, help, type));
+        if (family.type != type) {
+            throw new IllegalArgumentException("Metric " + name + " is already registered as a " + family.type.text);
+        }
+        return family;
+    }
+
+    private static String labelText(String... labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be given as name and value pairs");
+        }
+        if (labels.length == 0) {
+            return "";
+        }
+        StringBuilder text = new StringBuilder("{");
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                text.append(',');
+            }
+            appendLabel(text, labels[i], labels[i + 1]);
+        }
+        return text.append('}').toString();
+    }
+
+    private static String withLabel(String labels, String name, String value) {
+        StringBuilder text = new StringBuilder();
+        if (labels.isEmpty()) {
+            text.append('{');
+        } else {
+            text.append(labels, 0, labels.length() - 1).append(',');
+        }
+        appendLabel(text, name, value);
+        return text.append('}').toString();
+    }
+
+    private static void appendLabel(StringBuilder text, String name, String value) {
+        text.append(name).append("=\"");
+        for (int i = 0; i < value.length(); ++i) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == '"') {
+                text.append('\\').append(c);
+            } else if (c == '\n') {
+                text.append("\\n");
+            } else {
+                text.append(c);
+            }
+        }
+        text.append('"');
+    }
+
+    private enum Type {
+        COUNTER("counter"), GAUGE("gauge"), HISTOGRAM("histogram");
+
+        private final String text;
+
+        Type(String text) {
+            this.text = text;
+        }
+    }
+
+    private static final class Family {
+        private final String name;
+        private final String help;
+        private final Type type;
+        // Metrics by label text, sorted so that the output is stable
+        private final ConcurrentMap<String, Object> metrics = new ConcurrentSkipListMap<>();
+
+        Family(String name, String help, Type type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package tools.metrics;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Fixed array of the slowest finished traces. A new trace takes a free slot or replaces the
+ * fastest trace held if it is slower, and the traces older than the retention are dropped so that
+ * an old incident does not hide the recent ones.
+ */
+class SlowTraceBuffer {
+    private final Trace[] traces;
+    private final long[] finishedAt;
+    private final long retentionMillis;
+
+    /**
+     * Constructor
+     *
+     * @param capacity        the number of traces kept
+     * @param retentionMillis how long a trace is kept at most
+     */
+    SlowTraceBuffer(int capacity, long retentionMillis) {
+        this.traces = new Trace[capacity];
+        this.finishedAt = new long[capacity];
+        this.retentionMillis = retentionMillis;
+    }
+
+    synchronized void offer(Trace trace) {
+        long now = System.currentTimeMillis();
+        int target = -1;
+        for (int i = 0; i < traces.length; ++i) {
+            if (traces[i] == null || now - finishedAt[i] > retentionMillis) {
+                traces[i] = null;
+                target = i;
+            } else if (target == -1 || (traces[target] != null && traces[i].totalMillis() < traces[target].totalMillis())) {
+                target = i;
+            }
+        }
+        if (traces[target] == null || traces[target].totalMillis() < trace.totalMillis()) {
+            traces[target] = trace;
+            finishedAt[target] = now;
+        }
+    }
+
+    synchronized List<Trace> snapshot() {
+        long now = System.currentTimeMillis();
+        List<Trace> result = new ArrayList<>();
+        for (int i = 0; i < traces.length; ++i) {
+            if (traces[i] != null && now - finishedAt[i] <= retentionMillis) {
+                result.add(traces[i]);
+            }
+        }
+        result.sort(Comparator.comparingDouble(Trace::totalMillis).reversed());
+        return result;
+    }
+}
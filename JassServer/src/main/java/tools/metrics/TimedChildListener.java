@@ -0,0 +1,74 @@
+package tools.metrics;
+
+import db.ChildListener;
+import db.Snapshot;
+
+/**
+ * Decorates a {@link ChildListener} to record how long it takes to process each kind of
+ * event. The database callbacks all run on the same thread, so the time spent in one listener
+ * delays the events of all the others.
+ */
+public class TimedChildListener implements ChildListener {
+    private static final String NAME = "firebase_event_duration_seconds";
+    private static final String HELP = "Time spent by the listeners processing Firebase events";
+
+    private final ChildListener listener;
+    private final LatencyHistogram added;
+    private final LatencyHistogram changed;
+    private final LatencyHistogram removed;
+    private final Counter failures;
+
+    /**
+     * Constructor
+     *
+     * @param name     the name of the listener, used as label
+     * @param listener the listener to time
+     */
+    public TimedChildListener(String name, ChildListener listener) {
+        this.listener = listener;
+        this.added = Metrics.histogram(NAME, HELP, "listener", name, "event", "added");
+        this.changed = Metrics.histogram(NAME, HELP, "listener", name, "event", "changed");
+        this.removed = Metrics.histogram(NAME, HELP, "listener", name, "event", "removed");
+        this.failures = Metrics.counter("firebase_event_failures_total",
+                "Firebase events whose processing threw an exception", "listener", name);
+    }
+
+    @Override
+    public void onChildAdded(Snapshot dataSnapshot) {
+        long start = System.nanoTime();
+        try {
+            listener.onChildAdded(dataSnapshot);
+        } catch (RuntimeException e) {
+            failures.inc();
+            throw e;
+        } finally {
+            added.recordNanos(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void onChildChanged(Snapshot dataSnapshot) {
+        long start = System.nanoTime();
+        try {
+            listener.onChildChanged(dataSnapshot);
+        } catch (RuntimeException e) {
+            failures.inc();
+            throw e;
+        } finally {
+            changed.recordNanos(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void onChildRemoved(Snapshot dataSnapshot) {
+        long start = System.nanoTime();
+        try {
+            listener.onChildRemoved(dataSnapshot);
+        } catch (RuntimeException e) {
+            failures.inc();
+            throw e;
+        } finally {
+            removed.recordNanos(System.nanoTime() - start);
+        }
+    }
+}
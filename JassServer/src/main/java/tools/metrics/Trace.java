@@ -0,0 +1,157 @@
+package tools.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Timeline of the processing of one event, split in named stages.
+ * <p>
+ * A trace is started when an event enters a listener and passed along to the code handling it,
+ * which marks the end of each stage: the time since the previous mark is recorded in the
+ * trace_stage_duration_seconds histogram of the stage. When the trace is finished its total
+ * duration is recorded too, and it is kept in memory if it is among the slowest recent traces,
+ * see {@link #slowest()}. A trace may be marked and finished from another thread than the one
+ * that started it, for instance in a completion callback.
+ */
+public final class Trace {
+    private static final String STAGE_NAME = "trace_stage_duration_seconds";
+    private static final String STAGE_HELP = "Time spent in each stage of the traced events";
+    private static final String TOTAL_NAME = "trace_duration_seconds";
+    private static final String TOTAL_HELP = "Time from the arrival of the traced events to the end of their processing";
+    private static final SlowTraceBuffer slowest = new SlowTraceBuffer(50, 3600 * 1000L);
+    private static final ConcurrentMap<String, Histograms> histogramsByKind = new ConcurrentHashMap<>();
+
+    private final String kind;
+    private final String id;
+    private final long startedAt;
+    private final List<Stage> stages = new ArrayList<>();
+    private double totalMillis;
+    private final transient Histograms histograms;
+    private final transient long startNanos;
+    private transient long lastNanos;
+    private transient boolean finished;
+
+    private Trace(String kind, String id) {
+        this.kind = kind;
+        this.id = id;
+        this.startedAt = System.currentTimeMillis();
+        this.histograms = histogramsByKind.computeIfAbsent(kind, Histograms::new);
+        this.startNanos = System.nanoTime();
+        this.lastNanos = startNanos;
+    }
+
+    /**
+     * Starts the trace of an event.
+     *
+     * @param kind the kind of event, used as label
+     * @param id   the identifier of the object concerned by the event, such as a match id
+     * @return the trace
+     */
+    public static Trace start(String kind, String id) {
+        return new Trace(kind, id);
+    }
+
+    /**
+     * Marks the end of a stage, which started at the previous mark or at the start of the trace.
+     * Marks made after the trace is finished are ignored.
+     *
+     * @param stage the name of the stage
+     * @return this trace
+     */
+    public synchronized Trace mark(String stage) {
+        if (finished) {
+            return this;
+        }
+        long now = System.nanoTime();
+        long elapsed = now - lastNanos;
+        lastNanos = now;
+        stages.add(new Stage(stage, elapsed / 1e6));
+        histograms.stage(stage).recordNanos(elapsed);
+        return this;
+    }
+
+    /**
+     * Ends the trace. Finishing it again has no effect.
+     */
+    public void finish() {
+        synchronized (this) {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            long elapsed = System.nanoTime() - startNanos;
+            totalMillis = elapsed / 1e6;
+            histograms.total.recordNanos(elapsed);
+        }
+        slowest.offer(this);
+    }
+
+    public String kind() {
+        return kind;
+    }
+
+    public String id() {
+        return id;
+    }
+
+    public synchronized double totalMillis() {
+        return totalMillis;
+    }
+
+    /**
+     * @return the stages marked so far, in order
+     */
+    public synchronized List<Stage> stages() {
+        return Collections.unmodifiableList(new ArrayList<>(stages));
+    }
+
+    /**
+     * @return the slowest traces finished in the last hour, slowest first
+     */
+    public static List<Trace> slowest() {
+        return slowest.snapshot();
+    }
+
+    /**
+     * The histograms of a kind of trace, kept so that a mark does not look up the registry.
+     */
+    private static final class Histograms {
+        private final String kind;
+        private final LatencyHistogram total;
+        private final ConcurrentMap<String, LatencyHistogram> stages = new ConcurrentHashMap<>();
+
+        Histograms(String kind) {
+            this.kind = kind;
+            this.total = Metrics.histogram(TOTAL_NAME, TOTAL_HELP, "trace", kind);
+        }
+
+        LatencyHistogram stage(String stage) {
+            return stages.computeIfAbsent(stage,
+                    s -> Metrics.histogram(STAGE_NAME, STAGE_HELP, "trace", kind, "stage", s));
+        }
+    }
+
+    /**
+     * A stage of a trace and its duration.
+     */
+    public static final class Stage {
+        private final String stage;
+        private final double millis;
+
+        Stage(String stage, double millis) {
+            this.stage = stage;
+            this.millis = millis;
+        }
+
+        public String stage() {
+            return stage;
+        }
+
+        public double millis() {
+            return millis;
+        }
+    }
+}
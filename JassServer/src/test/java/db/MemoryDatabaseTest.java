@@ -0,0 +1,195 @@
+package db;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MemoryDatabaseTest {
+    private MemoryDatabase database;
+    private Reference root;
+
+    @Before
+    public void setUp() {
+        database = new MemoryDatabase();
+        root = database.root();
+    }
+
+    @After
+    public void tearDown() {
+        database.shutdown();
+    }
+
+    @Test
+    public void newListenerReceivesTheExistingChildrenInKeyOrder() throws InterruptedException {
+        root.child("matches/b").setValue("second");
+        root.child("matches/10").setValue("third");
+        root.child("matches/2").setValue("first");
+        Recorder recorder = listen("matches");
+        assertEquals(Arrays.asList("added 2=first", "added 10=third", "added b=second"), recorder.events());
+    }
+
+    @Test
+    public void writesFireAddedChangedAndRemovedInOrder() throws InterruptedException {
+        Recorder recorder = listen("matches");
+        root.child("matches/a").setValue("created");
+        root.child("matches/a").setValue("updated");
+        root.child("matches/a").removeValue();
+        assertEquals(Arrays.asList("added a=created", "changed a=updated", "removed a=updated"), recorder.events());
+    }
+
+    @Test
+    public void writingTheSameValueFiresNothing() throws InterruptedException {
+        root.child("matches/a/quote").setValue(1000);
+        Recorder recorder = listen("matches");
+        recorder.clear();
+        root.child("matches/a/quote").setValue(1000);
+        assertEquals(Collections.emptyList(), recorder.events());
+    }
+
+    @Test
+    public void writeBelowAChildFiresOneChangeOfTheChild() throws InterruptedException {
+        root.child("matches/a").setValue(map("quote", 1000, "status", "PENDING"));
+        Recorder recorder = listen("matches");
+        recorder.clear();
+        root.child("matches").updateChildren(map("a/quote", 1200, "a/status", "FULL"));
+        assertEquals(Collections.singletonList("changed a={quote=1200, status=FULL}"), recorder.events());
+    }
+
+    @Test
+    public void updateChildrenFiresOneEventPerChild() throws InterruptedException {
+        root.child("matches/a").setValue("kept");
+        root.child("matches/b").setValue("old");
+        Recorder recorder = listen("matches");
+        recorder.clear();
+        Map<String, Object> update = new HashMap<>();
+        update.put("b", "new");
+        update.put("c", "added");
+        update.put("a", null);
+        root.child("matches").updateChildren(update);
+        assertEquals(Arrays.asList("removed a=kept", "changed b=new", "added c=added"), recorder.events());
+    }
+
+    @Test
+    public void replacingTheListenedLocationDiffsEveryChild() throws InterruptedException {
+        root.child("matches").setValue(map("a", 1, "b", 2));
+        Recorder recorder = listen("matches");
+        recorder.clear();
+        root.child("matches").setValue(map("b", 3, "c", 4));
+        assertEquals(Arrays.asList("removed a=1", "changed b=3", "added c=4"), recorder.events());
+        root.setValue(null);
+        assertEquals(Arrays.asList("removed a=1", "changed b=3", "added c=4", "removed b=3", "removed c=4"),
+                recorder.events());
+    }
+
+    @Test
+    public void removingTheLastLeafRemovesTheEmptyParents() throws InterruptedException {
+        root.child("matches/a/players/0").setValue("123456");
+        Recorder recorder = listen("matches");
+        recorder.clear();
+        root.child("matches/a/players/0").removeValue();
+        assertEquals(Collections.singletonList("removed a={players=[123456]}"), recorder.events());
+        assertFalse(root.child("matches").read(1, TimeUnit.SECONDS).exists());
+    }
+
+    @Test
+    public void removedListenerReceivesNothing() throws InterruptedException {
+        Recorder recorder = listen("matches");
+        root.child("matches").removeChildListener(recorder);
+        root.child("matches/a").setValue("created");
+        assertTrue(database.awaitIdle(1, TimeUnit.SECONDS));
+        assertEquals(Collections.emptyList(), recorder.events());
+    }
+
+    @Test
+    public void valuesAreStoredAsFirebaseStoresThem() throws InterruptedException {
+        root.child("a").setValue(map("int", 3, "double", 2.0, "fraction", 0.5, "list", Arrays.asList("x", "y"),
+                "empty", Collections.emptyMap()));
+        Snapshot snapshot = root.child("a").read(1, TimeUnit.SECONDS);
+        assertEquals(3L, snapshot.child("int").getValue());
+        assertEquals(2L, snapshot.child("double").getValue());
+        assertEquals(0.5, snapshot.child("fraction").getValue());
+        assertEquals(Arrays.asList("x", "y"), snapshot.child("list").getValue());
+        assertFalse(snapshot.child("empty").exists());
+    }
+
+    @Test
+    public void sparseIndicesAreReadBackAsAMap() throws InterruptedException {
+        root.child("a/0").setValue("x");
+        root.child("a/5").setValue("y");
+        Object value = root.child("a").read(1, TimeUnit.SECONDS).getValue();
+        assertEquals(map("0", "x", "5", "y"), value);
+    }
+
+    @Test
+    public void readOfAMissingLocationDoesNotExist() throws InterruptedException {
+        Snapshot snapshot = root.child("missing/location").read(1, TimeUnit.SECONDS);
+        assertFalse(snapshot.exists());
+        assertNull(snapshot.getValue());
+        assertEquals("location", snapshot.getKey());
+    }
+
+    @Test
+    public void writesAreAcknowledged() throws InterruptedException {
+        List<String> acknowledgements = Collections.synchronizedList(new ArrayList<>());
+        root.child("a").setValue("x", error -> acknowledgements.add("set " + error));
+        root.child("a").removeValue(error -> acknowledgements.add("remove " + error));
+        assertTrue(database.awaitIdle(1, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("set null", "remove null"), acknowledgements);
+    }
+
+    private Recorder listen(String path) throws InterruptedException {
+        Recorder recorder = new Recorder();
+        root.child(path).addChildListener(recorder);
+        assertTrue(database.awaitIdle(1, TimeUnit.SECONDS));
+        return recorder;
+    }
+
+    private static Map<String, Object> map(Object... keysAndValues) {
+        Map<String, Object> map = new HashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            map.put((String) keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return map;
+    }
+
+    private class Recorder implements ChildListener {
+        private final List<String> events = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void onChildAdded(Snapshot snapshot) {
+            events.add("added " + snapshot.getKey() + "=" + snapshot.getValue());
+        }
+
+        @Override
+        public void onChildChanged(Snapshot snapshot) {
+            events.add("changed " + snapshot.getKey() + "=" + snapshot.getValue());
+        }
+
+        @Override
+        public void onChildRemoved(Snapshot snapshot) {
+            events.add("removed " + snapshot.getKey() + "=" + snapshot.getValue());
+        }
+
+        List<String> events() throws InterruptedException {
+            assertTrue(database.awaitIdle(1, TimeUnit.SECONDS));
+            return new ArrayList<>(events);
+        }
+
+        void clear() {
+            events.clear();
+        }
+    }
+}
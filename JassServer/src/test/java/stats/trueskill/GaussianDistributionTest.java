@@ -0,0 +1,53 @@
+package stats.trueskill;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class GaussianDistributionTest {
+    // Grid finer than the table, so that most points fall between two tabulated values
+    private static final double STEP = 1.0 / 1000;
+
+    @After
+    public void restoreMode() {
+        GaussianDistribution.setCumulativeMode(GaussianDistribution.CumulativeMode.EXACT);
+    }
+
+    @Test
+    public void tableIsWithinAbsoluteErrorBoundOnTheTabulatedRange() {
+        double worst = 0;
+        for (double x = -6; x < 6; x += STEP) {
+            double error = Math.abs(GaussianDistribution.tableCumulativeTo(x) - GaussianDistribution.exactCumulativeTo(x));
+            worst = Math.max(worst, error);
+        }
+        assertTrue("Maximum absolute error " + worst, worst < 1e-10);
+    }
+
+    @Test
+    public void tableIsWithinRelativeErrorBoundInTheLowerTail() {
+        double worst = 0;
+        for (double x = -6; x < -3; x += STEP) {
+            double exact = GaussianDistribution.exactCumulativeTo(x);
+            double error = Math.abs(GaussianDistribution.tableCumulativeTo(x) - exact) / exact;
+            worst = Math.max(worst, error);
+        }
+        assertTrue("Maximum relative error " + worst, worst < 1e-6);
+    }
+
+    @Test
+    public void tableFallsBackToExactOutsideOfTheTabulatedRange() {
+        for (double x : new double[]{-12, -6.5, -6 - STEP, 6, 6.5, 12}) {
+            assertEquals(GaussianDistribution.exactCumulativeTo(x), GaussianDistribution.tableCumulativeTo(x), 0);
+        }
+    }
+
+    @Test
+    public void cumulativeToFollowsTheSelectedMode() {
+        double x = 0.123456;
+        assertEquals(GaussianDistribution.exactCumulativeTo(x), GaussianDistribution.cumulativeTo(x), 0);
+        GaussianDistribution.setCumulativeMode(GaussianDistribution.CumulativeMode.TABLE);
+        assertEquals(GaussianDistribution.tableCumulativeTo(x), GaussianDistribution.cumulativeTo(x), 0);
+    }
+}
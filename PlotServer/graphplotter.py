@@ -22,8 +22,9 @@ def plotAll():
     print('salut les geeks')
     data = request.get_json()
     print('Received data ' + json.dumps(data))
-    serve(data['bars'])
-    serveTimes(data['times'])
+    # The server only sends the graphs whose data changed
+    serve(data.get('bars', {}))
+    serveTimes(data.get('times', {}))
     return 'got it'
 
 
@@ -32,15 +33,15 @@ if __name__ == "__main__":
 
 
 def serve(dic):
-    create_bar_graph(dic['variants'])
-    create_bar_graph(dic['partners'])
-    create_bar_graph(dic['wonWith'])
+    for graph in ('variants', 'partners', 'wonWith'):
+        if graph in dic:
+            create_bar_graph(dic[graph])
 
 
 def serveTimes(dic):
-    create_time_graph(dic['played'])
-    create_time_graph(dic['won'])
-    create_time_graph(dic['rank'])
+    for graph in ('played', 'won', 'rank'):
+        if graph in dic:
+            create_time_graph(dic[graph])
 
 
 def create_bar_graph(json_dict):